@@ -0,0 +1,115 @@
+package nz.ac.auckland.apiproxy.chat.openai;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import nz.ac.auckland.apiproxy.service.ApiProxyJson;
+
+/**
+ * The parses the chat benchmarks are compared against: how responses were read before they were
+ * bound to typed records. Kept here only as a baseline, the product no longer uses them.
+ */
+final class BaselineParsers {
+
+  private static final ObjectMapper MAPPER = ApiProxyJson.getMapper();
+
+  private BaselineParsers() {}
+
+  /**
+   * Reads the response with a new mapper, as every request used to, into maps and lists, and walks
+   * them with toString and parseInt.
+   */
+  static ChatCompletionResult parseResponseAsMap(InputStream stream) throws IOException {
+    Map<?, ?> envelope = new ObjectMapper().readValue(stream, Map.class);
+    Map<?, ?> chatCompletion = (Map<?, ?>) envelope.get("chat_completion");
+    String model = chatCompletion.get("model").toString();
+    long created =
+        chatCompletion.get("created") == null
+            ? 0
+            : Long.parseLong(chatCompletion.get("created").toString());
+    Map<?, ?> usage = (Map<?, ?>) chatCompletion.get("usage");
+
+    List<Choice> choices = new ArrayList<>();
+    for (Object choiceJson : (List<?>) chatCompletion.get("choices")) {
+      Map<?, ?> choice = (Map<?, ?>) choiceJson;
+      Map<?, ?> message = (Map<?, ?>) choice.get("message");
+      choices.add(
+          new Choice(
+              new ChatMessage(message.get("role").toString(), message.get("content").toString()),
+              Integer.parseInt(choice.get("index").toString()),
+              choice.get("finish_reason").toString()));
+    }
+    return new ChatCompletionResult(
+        model,
+        created,
+        Integer.parseInt(usage.get("prompt_tokens").toString()),
+        Integer.parseInt(usage.get("completion_tokens").toString()),
+        Integer.parseInt(usage.get("total_tokens").toString()),
+        choices);
+  }
+
+  /** Reads each server-sent event into a JSON tree and walks it. */
+  static ChatCompletionResult parseEventStreamAsTree(InputStream stream) throws IOException {
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+    Map<Integer, StringBuilder> contents = new TreeMap<>();
+    Map<Integer, String> finishReasons = new TreeMap<>();
+    String model = null;
+    long created = 0;
+    int promptTokens = 0;
+    int completionTokens = 0;
+    int totalTokens = 0;
+
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (!line.startsWith("data:")) {
+        continue;
+      }
+      String data = line.substring(5).trim();
+      if (data.equals("[DONE]")) {
+        break;
+      }
+      JsonNode chunk = MAPPER.readTree(data);
+      if (model == null && chunk.hasNonNull("model")) {
+        model = chunk.get("model").asText();
+      }
+      if (created == 0 && chunk.hasNonNull("created")) {
+        created = chunk.get("created").asLong();
+      }
+      JsonNode usage = chunk.path("usage");
+      if (usage.isObject()) {
+        promptTokens = usage.path("prompt_tokens").asInt();
+        completionTokens = usage.path("completion_tokens").asInt();
+        totalTokens = usage.path("total_tokens").asInt();
+      }
+      for (JsonNode choice : chunk.path("choices")) {
+        int index = choice.path("index").asInt(0);
+        JsonNode delta = choice.path("delta");
+        if (delta.hasNonNull("content")) {
+          contents
+              .computeIfAbsent(index, key -> new StringBuilder())
+              .append(delta.get("content").asText());
+        }
+        if (choice.hasNonNull("finish_reason")) {
+          finishReasons.put(index, choice.get("finish_reason").asText());
+        }
+      }
+    }
+
+    List<Choice> choices = new ArrayList<>();
+    for (Map.Entry<Integer, StringBuilder> entry : contents.entrySet()) {
+      ChatMessage message = new ChatMessage("assistant", entry.getValue().toString());
+      choices.add(new Choice(message, entry.getKey(), finishReasons.get(entry.getKey())));
+    }
+    return new ChatCompletionResult(
+        model, created, promptTokens, completionTokens, totalTokens, choices);
+  }
+}
@@ -0,0 +1,49 @@
+package nz.ac.auckland.apiproxy.chat.openai;
+
+/** Realistic request and response content shared by the chat benchmarks. */
+final class BenchmarkData {
+
+  static final String REPLY =
+      "I was closing up the shop around nine, like I always do. Then I went home and watched the"
+          + " news with my wife. I didn't see anyone hanging around the back door, if that's what"
+          + " you're asking. Why, has something else gone missing?";
+
+  private BenchmarkData() {}
+
+  static String systemPrompt() {
+    StringBuilder prompt = new StringBuilder("You are a character in a game.");
+    for (int i = 0; i < 20; i++) {
+      prompt.append(" - Detail number ").append(i).append(" about your character and alibi.");
+    }
+    return prompt.toString();
+  }
+
+  static String responseJson() {
+    return "{\"success\":true,\"code\":0,\"message\":\"OK\",\"chat_completion\":{"
+        + "\"id\":\"chatcmpl-9abcdefghijklmnopqrstuvwxyz\",\"object\":\"chat.completion\","
+        + "\"created\":1718000000,\"model\":\"gpt-4o-2024-05-13\","
+        + "\"system_fingerprint\":\"fp_0123456789\","
+        + "\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\""
+        + REPLY
+        + "\"},\"logprobs\":null,\"finish_reason\":\"stop\"}],"
+        + "\"usage\":{\"prompt_tokens\":812,\"completion_tokens\":54,\"total_tokens\":866}}}";
+  }
+
+  static String eventStream() {
+    StringBuilder stream = new StringBuilder();
+    for (String word : REPLY.split(" ")) {
+      stream
+          .append("data: {\"id\":\"chatcmpl-9abc\",\"object\":\"chat.completion.chunk\",")
+          .append("\"created\":1718000000,\"model\":\"gpt-4o-2024-05-13\",")
+          .append("\"choices\":[{\"index\":0,\"delta\":{\"content\":\"")
+          .append(word)
+          .append(" \"},\"finish_reason\":null}]}\n\n");
+    }
+    stream
+        .append("data: {\"id\":\"chatcmpl-9abc\",\"object\":\"chat.completion.chunk\",")
+        .append("\"created\":1718000000,\"model\":\"gpt-4o-2024-05-13\",\"choices\":[],")
+        .append("\"usage\":{\"prompt_tokens\":812,\"completion_tokens\":54,\"total_tokens\":866}}")
+        .append("\n\ndata: [DONE]\n\n");
+    return stream.toString();
+  }
+}
@@ -0,0 +1,71 @@
+package nz.ac.auckland.apiproxy.chat.openai;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import nz.ac.auckland.apiproxy.config.BenchmarkConfig;
+import nz.ac.auckland.apiproxy.service.JsonStreamingEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Cost of building a chat request body and its cache key for conversations of various lengths. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatCompletionRequestBenchmark {
+
+  @Param({"2", "10", "50"})
+  public int historyLength;
+
+  private ChatCompletionRequest request;
+  private ByteArrayOutputStream buffer;
+
+  @Setup
+  public void setUp() {
+    request =
+        new ChatCompletionRequest(BenchmarkConfig.create())
+            .setN(1)
+            .setTemperature(0.2)
+            .setTopP(0.5)
+            .setMaxTokens(100)
+            .addMessage("system", BenchmarkData.systemPrompt());
+    for (int i = 1; i < historyLength; i++) {
+      if (i % 2 == 1) {
+        request.addMessage("user", "Where were you last night between nine and eleven?");
+      } else {
+        request.addMessage("assistant", BenchmarkData.REPLY);
+      }
+    }
+    buffer = new ByteArrayOutputStream(64 * 1024);
+  }
+
+  @Benchmark
+  public int writePayload() throws IOException {
+    buffer.reset();
+    JsonStreamingEntity entity = request.buildEntity(request.getMessages(), false);
+    entity.writeTo(buffer);
+    return buffer.size();
+  }
+
+  @Benchmark
+  public String cacheKey() {
+    return request.getCacheKey();
+  }
+
+  @Benchmark
+  public int estimatePromptTokens() {
+    return request.estimatePromptTokens();
+  }
+}
@@ -0,0 +1,68 @@
+package nz.ac.auckland.apiproxy.chat.openai;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.apiproxy.service.ApiProxyJson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of turning a proxy response, whole or streamed, into a {@link ChatCompletionResult}. The
+ * {@code baseline} cases parse the same input the way it was parsed before, for comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatCompletionResultBenchmark {
+
+  private static final ObjectReader RESPONSE_READER =
+      ApiProxyJson.readerFor(ResponseChatCompletionViaProxy.class);
+
+  private byte[] response;
+  private byte[] eventStream;
+
+  @Setup
+  public void setUp() {
+    response = BenchmarkData.responseJson().getBytes(StandardCharsets.UTF_8);
+    eventStream = BenchmarkData.eventStream().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public ChatCompletionResult parseResponse() throws IOException {
+    ResponseChatCompletionViaProxy envelope =
+        RESPONSE_READER.readValue(new ByteArrayInputStream(response));
+    return new ChatCompletionResult(envelope.chat_completion);
+  }
+
+  @Benchmark
+  public ChatCompletionResult baselineParseResponse() throws IOException {
+    return BaselineParsers.parseResponseAsMap(new ByteArrayInputStream(response));
+  }
+
+  @Benchmark
+  public ChatCompletionResult parseEventStream() throws IOException, ApiProxyException {
+    ChatCompletionStreamParser parser = new ChatCompletionStreamParser(delta -> {});
+    parser.parseEventStream(new ByteArrayInputStream(eventStream));
+    return parser.getResult();
+  }
+
+  @Benchmark
+  public ChatCompletionResult baselineParseEventStream() throws IOException {
+    return BaselineParsers.parseEventStreamAsTree(new ByteArrayInputStream(eventStream));
+  }
+}
@@ -0,0 +1,20 @@
+package nz.ac.auckland.apiproxy.config;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import nz.ac.auckland.apiproxy.service.ApiProxyJson;
+
+/** Builds the config the benchmarks run with from JSON, without needing apiproxy.config. */
+public final class BenchmarkConfig {
+
+  private BenchmarkConfig() {}
+
+  public static ApiProxyConfig create() {
+    try {
+      return ApiProxyJson.readerFor(ApiProxyConfig.class)
+          .readValue("{\"apiKey\": \"benchmark-key\", \"email\": \"benchmark@example.com\"}");
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package nz.ac.auckland.apiproxy.tts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import nz.ac.auckland.apiproxy.config.BenchmarkConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Cost of building a text to speech request body. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextToSpeechRequestBenchmark {
+
+  private TextToSpeechRequest request;
+  private ByteArrayOutputStream buffer;
+
+  @Setup
+  public void setUp() {
+    request =
+        new TextToSpeechRequest(BenchmarkConfig.create())
+            .setProvider(TextToSpeechRequest.Provider.GOOGLE)
+            .setVoice(TextToSpeechRequest.Voice.GOOGLE_EN_AU_STANDARD_D)
+            .setText(
+                "I was closing up the shop around nine, like I always do. Then I went home and"
+                    + " watched the news with my wife.");
+    buffer = new ByteArrayOutputStream(4096);
+  }
+
+  @Benchmark
+  public int writePayload() throws IOException {
+    buffer.reset();
+    request.buildEntity().writeTo(buffer);
+    return buffer.size();
+  }
+}
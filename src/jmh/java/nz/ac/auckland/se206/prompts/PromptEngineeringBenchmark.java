@@ -0,0 +1,60 @@
+package nz.ac.auckland.se206.prompts;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Cost of loading and filling the game's real prompt files. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PromptEngineeringBenchmark {
+
+  @Param({
+    "prompts/shop_owner.txt",
+    "prompts/security_guard.txt",
+    "prompts/employee.txt",
+    "prompts/feedback.txt"
+  })
+  public String promptSource;
+
+  private Map<String, String> data;
+  private PromptTemplate compiled;
+
+  @Setup
+  public void setUp() {
+    data = new HashMap<>();
+    data.put("name", "Shop Owner");
+    data.put("feedback", "The player accused the shop owner because of the email on the computer.");
+    compiled = PromptEngineering.getTemplate(promptSource);
+  }
+
+  @Benchmark
+  public String getPrompt() {
+    return PromptEngineering.getPrompt(promptSource, data);
+  }
+
+  @Benchmark
+  public String getTemplateAndRender() {
+    return PromptEngineering.getTemplate(promptSource, data.keySet()).render(data);
+  }
+
+  @Benchmark
+  public String render() {
+    return compiled.render(data);
+  }
+}
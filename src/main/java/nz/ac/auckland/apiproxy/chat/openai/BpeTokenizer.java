@@ -0,0 +1,318 @@
+package nz.ac.auckland.apiproxy.chat.openai;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Counts tokens locally with the byte pair encodings used by the OpenAI chat models. Merge ranks
+ * are read from {@code /tokenizers/<encoding>.tiktoken} on the classpath (the format published
+ * with OpenAI's tiktoken), which the build places there. If the file is missing, e.g. when running
+ * from an IDE that skipped the build step, counts fall back to an estimate of about four characters
+ * per token and {@link #isExact()} returns false.
+ *
+ * <p>Counting does not build token lists or substrings: text is encoded into reusable per-thread
+ * buffers and ranks are looked up by byte range.
+ */
+public class BpeTokenizer {
+
+  public static final String CL100K_BASE = "cl100k_base";
+  public static final String O200K_BASE = "o200k_base";
+
+  private static final String CL100K_PATTERN =
+      "(?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\\r\\n\\p{L}\\p{N}]?\\p{L}+|\\p{N}{1,3}"
+          + "| ?[^\\s\\p{L}\\p{N}]+[\\r\\n]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+";
+  private static final String O200K_PATTERN =
+      "[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]*[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]+"
+          + "(?i:'s|'t|'re|'ve|'m|'ll|'d)?"
+          + "|[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]+[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]*"
+          + "(?i:'s|'t|'re|'ve|'m|'ll|'d)?"
+          + "|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n/]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+";
+
+  // Tokens added around every message and before the reply by the chat format
+  private static final int TOKENS_PER_MESSAGE = 3;
+  private static final int TOKENS_PER_REPLY = 3;
+
+  private static final Map<String, BpeTokenizer> tokenizers = new ConcurrentHashMap<>();
+
+  private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+  public static BpeTokenizer forModel(ChatCompletionRequest.Model model) {
+    if (model == ChatCompletionRequest.Model.GPT_4o) {
+      return forEncoding(O200K_BASE);
+    }
+    return forEncoding(CL100K_BASE);
+  }
+
+  public static BpeTokenizer forEncoding(String encoding) {
+    return tokenizers.computeIfAbsent(encoding, BpeTokenizer::load);
+  }
+
+  private static BpeTokenizer load(String encoding) {
+    String regex = encoding.equals(O200K_BASE) ? O200K_PATTERN : CL100K_PATTERN;
+    Pattern pattern = Pattern.compile(regex, Pattern.UNICODE_CHARACTER_CLASS);
+
+    InputStream stream =
+        BpeTokenizer.class.getResourceAsStream("/tokenizers/" + encoding + ".tiktoken");
+    if (stream == null) {
+      return new BpeTokenizer(encoding, pattern, null);
+    }
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(stream, StandardCharsets.US_ASCII))) {
+      List<byte[]> tokens = new ArrayList<>();
+      List<Integer> ranks = new ArrayList<>();
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int space = line.indexOf(' ');
+        if (space > 0) {
+          tokens.add(Base64.getDecoder().decode(line.substring(0, space)));
+          ranks.add(Integer.parseInt(line.substring(space + 1).trim()));
+        }
+      }
+      return new BpeTokenizer(encoding, pattern, new RankTable(tokens, ranks));
+    } catch (IOException | IllegalArgumentException e) {
+      e.printStackTrace();
+      return new BpeTokenizer(encoding, pattern, null);
+    }
+  }
+
+  private final String encoding;
+  private final Pattern pattern;
+  private final RankTable ranks;
+
+  BpeTokenizer(String encoding, Pattern pattern, RankTable ranks) {
+    this.encoding = encoding;
+    this.pattern = pattern;
+    this.ranks = ranks;
+  }
+
+  public String getEncoding() {
+    return encoding;
+  }
+
+  public boolean isExact() {
+    return ranks != null;
+  }
+
+  public int countTokens(String text) {
+    if (text == null || text.isEmpty()) {
+      return 0;
+    }
+    if (ranks == null) {
+      return (text.length() + 3) / 4;
+    }
+
+    Scratch buffers = scratch.get();
+    Matcher matcher = pattern.matcher(text);
+    int count = 0;
+    while (matcher.find()) {
+      int length = buffers.encode(text, matcher.start(), matcher.end());
+      count += countPiece(buffers, length);
+    }
+    return count;
+  }
+
+  public int countMessageTokens(ChatMessage message) {
+    return TOKENS_PER_MESSAGE + countTokens(message.getRole()) + countTokens(message.getContent());
+  }
+
+  public int countPromptTokens(List<ChatMessage> messages) {
+    int count = TOKENS_PER_REPLY;
+    for (ChatMessage message : messages) {
+      count += countMessageTokens(message);
+    }
+    return count;
+  }
+
+  private int countPiece(Scratch buffers, int length) {
+    byte[] bytes = buffers.bytes;
+    if (ranks.rank(bytes, 0, length) != RankTable.NONE) {
+      return 1;
+    }
+
+    // Boundaries between the current parts, and the rank of merging each part with the next
+    int[] parts = buffers.parts(length + 1);
+    int[] pairRanks = buffers.pairRanks(length + 1);
+    int count = length + 1;
+    for (int i = 0; i < count; i++) {
+      parts[i] = i;
+    }
+    for (int i = 0; i < count - 2; i++) {
+      pairRanks[i] = ranks.rank(bytes, parts[i], parts[i + 2] - parts[i]);
+    }
+
+    while (count > 2) {
+      int best = -1;
+      int bestRank = RankTable.NONE;
+      for (int i = 0; i < count - 2; i++) {
+        if (pairRanks[i] < bestRank) {
+          bestRank = pairRanks[i];
+          best = i;
+        }
+      }
+      if (best < 0) {
+        break;
+      }
+
+      // Merge parts best and best + 1 by dropping the boundary between them
+      System.arraycopy(parts, best + 2, parts, best + 1, count - best - 2);
+      System.arraycopy(pairRanks, best + 1, pairRanks, best, count - best - 3);
+      count--;
+      if (best < count - 2) {
+        pairRanks[best] = ranks.rank(bytes, parts[best], parts[best + 2] - parts[best]);
+      }
+      if (best > 0) {
+        pairRanks[best - 1] =
+            ranks.rank(bytes, parts[best - 1], parts[best + 1] - parts[best - 1]);
+      }
+    }
+    return count - 1;
+  }
+
+  /** Open-addressing table from token bytes to merge rank, looked up without allocating. */
+  static class RankTable {
+
+    static final int NONE = Integer.MAX_VALUE;
+
+    private final byte[] pool;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final int[] ranks;
+    private final int[] slots;
+    private final int mask;
+
+    RankTable(List<byte[]> tokens, List<Integer> tokenRanks) {
+      int size = tokens.size();
+      int poolSize = 0;
+      for (byte[] token : tokens) {
+        poolSize += token.length;
+      }
+
+      pool = new byte[poolSize];
+      offsets = new int[size];
+      lengths = new int[size];
+      ranks = new int[size];
+      int capacity = Integer.highestOneBit(Math.max(2, size * 2) - 1) << 1;
+      slots = new int[capacity];
+      mask = capacity - 1;
+      Arrays.fill(slots, -1);
+
+      int offset = 0;
+      for (int i = 0; i < size; i++) {
+        byte[] token = tokens.get(i);
+        System.arraycopy(token, 0, pool, offset, token.length);
+        offsets[i] = offset;
+        lengths[i] = token.length;
+        ranks[i] = tokenRanks.get(i);
+        offset += token.length;
+
+        int slot = hash(token, 0, token.length) & mask;
+        while (slots[slot] != -1) {
+          slot = (slot + 1) & mask;
+        }
+        slots[slot] = i;
+      }
+    }
+
+    int rank(byte[] bytes, int start, int length) {
+      int slot = hash(bytes, start, length) & mask;
+      while (true) {
+        int entry = slots[slot];
+        if (entry == -1) {
+          return NONE;
+        }
+        if (matches(entry, bytes, start, length)) {
+          return ranks[entry];
+        }
+        slot = (slot + 1) & mask;
+      }
+    }
+
+    private boolean matches(int entry, byte[] bytes, int start, int length) {
+      if (lengths[entry] != length) {
+        return false;
+      }
+      int offset = offsets[entry];
+      for (int i = 0; i < length; i++) {
+        if (pool[offset + i] != bytes[start + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static int hash(byte[] bytes, int start, int length) {
+      // FNV-1a, followed by a final mix so that linear probing spreads well
+      int hash = 0x811c9dc5;
+      for (int i = start; i < start + length; i++) {
+        hash ^= bytes[i];
+        hash *= 0x01000193;
+      }
+      return hash ^ (hash >>> 16);
+    }
+  }
+
+  /** Per-thread buffers reused across calls. */
+  private static class Scratch {
+    private byte[] bytes = new byte[256];
+    private int[] parts = new int[257];
+    private int[] pairRanks = new int[257];
+
+    int encode(String text, int start, int end) {
+      int maxLength = (end - start) * 3;
+      if (bytes.length < maxLength) {
+        bytes = new byte[Math.max(maxLength, bytes.length * 2)];
+      }
+
+      int length = 0;
+      for (int i = start; i < end; i++) {
+        int c = text.charAt(i);
+        if (Character.isHighSurrogate((char) c)
+            && i + 1 < end
+            && Character.isLowSurrogate(text.charAt(i + 1))) {
+          c = Character.toCodePoint((char) c, text.charAt(++i));
+        }
+        if (c < 0x80) {
+          bytes[length++] = (byte) c;
+        } else if (c < 0x800) {
+          bytes[length++] = (byte) (0xc0 | (c >> 6));
+          bytes[length++] = (byte) (0x80 | (c & 0x3f));
+        } else if (c < 0x10000) {
+          bytes[length++] = (byte) (0xe0 | (c >> 12));
+          bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+          bytes[length++] = (byte) (0x80 | (c & 0x3f));
+        } else {
+          bytes[length++] = (byte) (0xf0 | (c >> 18));
+          bytes[length++] = (byte) (0x80 | ((c >> 12) & 0x3f));
+          bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+          bytes[length++] = (byte) (0x80 | (c & 0x3f));
+        }
+      }
+      return length;
+    }
+
+    int[] parts(int size) {
+      if (parts.length < size) {
+        parts = new int[size * 2];
+      }
+      return parts;
+    }
+
+    int[] pairRanks(int size) {
+      if (pairRanks.length < size) {
+        pairRanks = new int[size * 2];
+      }
+      return pairRanks;
+    }
+  }
+}
@@ -0,0 +1,247 @@
+package nz.ac.auckland.apiproxy.chat.openai;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import nz.ac.auckland.apiproxy.service.ApiProxyJson;
+
+/**
+ * Exact-match cache of chat completions, keyed by {@link ChatCompletionRequest#getCacheKey()}.
+ * Entries are kept in a size-bounded LRU map, and optionally written to a directory so they
+ * survive restarts. The directory is bounded too: entries unused for longer than the maximum age
+ * are dropped, and once it holds too many entries the least recently used ones are deleted. Disk
+ * errors are reported but never fail the request.
+ */
+public class ChatCompletionCache {
+
+  private static final ObjectReader PAYLOAD_READER =
+      ApiProxyJson.readerFor(ChatCompletionPayload.class);
+  private static final ObjectWriter PAYLOAD_WRITER =
+      ApiProxyJson.getMapper().writerFor(ChatCompletionPayload.class);
+
+  public static final int DEFAULT_MAX_DISK_ENTRIES = 4096;
+  public static final long DEFAULT_MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+  private final Map<String, ChatCompletionPayload> entries;
+  private final Path directory;
+  private final int maxDiskEntries;
+  private final long maxAgeMillis;
+
+  // Entries written to the directory, counted when it is first written to
+  private final Object diskLock = new Object();
+  private int diskEntries = -1;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong diskHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public ChatCompletionCache(int maxEntries) {
+    this(maxEntries, null);
+  }
+
+  public ChatCompletionCache(int maxEntries, Path directory) {
+    this(maxEntries, directory, DEFAULT_MAX_DISK_ENTRIES, DEFAULT_MAX_AGE_MILLIS);
+  }
+
+  public ChatCompletionCache(
+      int maxEntries, Path directory, int maxDiskEntries, long maxAgeMillis) {
+    if (maxEntries < 1 || maxDiskEntries < 1) {
+      throw new IllegalArgumentException(
+          "The cache must hold at least 1 entry, but was given "
+              + maxEntries
+              + " in memory and "
+              + maxDiskEntries
+              + " on disk");
+    }
+    this.directory = directory;
+    this.maxDiskEntries = maxDiskEntries;
+    this.maxAgeMillis = maxAgeMillis;
+    this.entries =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          private static final long serialVersionUID = 1L;
+
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, ChatCompletionPayload> eldest) {
+            return size() > maxEntries;
+          }
+        };
+  }
+
+  public ChatCompletionPayload get(String key) {
+    ChatCompletionPayload payload;
+    synchronized (entries) {
+      payload = entries.get(key);
+    }
+    if (payload != null) {
+      hits.incrementAndGet();
+      return payload;
+    }
+
+    payload = readFromDisk(key);
+    if (payload != null) {
+      diskHits.incrementAndGet();
+      synchronized (entries) {
+        entries.put(key, payload);
+      }
+      return payload;
+    }
+
+    misses.incrementAndGet();
+    return null;
+  }
+
+  public void put(String key, ChatCompletionPayload payload) {
+    synchronized (entries) {
+      entries.put(key, payload);
+    }
+    writeToDisk(key, payload);
+  }
+
+  public void clear() {
+    synchronized (entries) {
+      entries.clear();
+    }
+  }
+
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getDiskHits() {
+    return diskHits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  private ChatCompletionPayload readFromDisk(String key) {
+    if (directory == null) {
+      return null;
+    }
+    Path file = directory.resolve(key + ".json");
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+    try {
+      if (isExpired(Files.getLastModifiedTime(file).toMillis(), System.currentTimeMillis())) {
+        Files.deleteIfExists(file);
+        return null;
+      }
+      ChatCompletionPayload payload = PAYLOAD_READER.readValue(file.toFile());
+      // The modification time doubles as the last use, so entries in use are deleted last
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+      return payload;
+    } catch (IOException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  private void writeToDisk(String key, ChatCompletionPayload payload) {
+    if (directory == null) {
+      return;
+    }
+    try {
+      Files.createDirectories(directory);
+      // Write to a temporary file first so readers never see a partial entry
+      Path temp = Files.createTempFile(directory, key, ".tmp");
+      PAYLOAD_WRITER.writeValue(temp.toFile(), payload);
+      Files.move(
+          temp,
+          directory.resolve(key + ".json"),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      e.printStackTrace();
+      return;
+    }
+
+    synchronized (diskLock) {
+      if (diskEntries < 0) {
+        diskEntries = listDiskEntries().size();
+      } else {
+        // Overwriting an entry counts it twice, which only makes the next prune come sooner
+        diskEntries++;
+      }
+      if (diskEntries > maxDiskEntries) {
+        pruneDisk();
+      }
+    }
+  }
+
+  /**
+   * Deletes expired entries from the directory, then the least recently used ones until a quarter
+   * of the room is free again, so the directory isn't listed on every write. Must be called while
+   * holding the disk lock.
+   */
+  private void pruneDisk() {
+    long now = System.currentTimeMillis();
+    List<DiskEntry> files = listDiskEntries();
+    files.sort(Comparator.comparingLong(entry -> entry.lastUsedMillis));
+    int keep = Math.max(1, maxDiskEntries * 3 / 4);
+    int remaining = files.size();
+    for (DiskEntry entry : files) {
+      if (remaining <= keep && !isExpired(entry.lastUsedMillis, now)) {
+        break;
+      }
+      try {
+        Files.deleteIfExists(entry.file);
+        remaining--;
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    diskEntries = remaining;
+  }
+
+  private List<DiskEntry> listDiskEntries() {
+    List<DiskEntry> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.json")) {
+      for (Path file : stream) {
+        try {
+          files.add(new DiskEntry(file, Files.getLastModifiedTime(file).toMillis()));
+        } catch (IOException e) {
+          // Deleted meanwhile, e.g. by another game sharing the directory
+        }
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    return files;
+  }
+
+  private boolean isExpired(long lastUsedMillis, long nowMillis) {
+    return maxAgeMillis > 0 && nowMillis - lastUsedMillis > maxAgeMillis;
+  }
+
+  /** A cache entry in the directory. */
+  private static class DiskEntry {
+
+    private final Path file;
+    private final long lastUsedMillis;
+
+    private DiskEntry(Path file, long lastUsedMillis) {
+      this.file = file;
+      this.lastUsedMillis = lastUsedMillis;
+    }
+  }
+}
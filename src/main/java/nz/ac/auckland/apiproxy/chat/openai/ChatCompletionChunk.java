@@ -0,0 +1,35 @@
+package nz.ac.auckland.apiproxy.chat.openai;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+
+/**
+ * One server-sent event of a streamed chat completion, bound directly from its JSON. The proxy
+ * may send the chunk as it is, wrap it in {@code chat_completion}, or send an error envelope with
+ * {@code success}, {@code code} and {@code message} instead.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+record ChatCompletionChunk(
+    @JsonProperty("success") Boolean success,
+    @JsonProperty("code") int code,
+    @JsonProperty("message") String message,
+    @JsonProperty("chat_completion") ChatCompletionChunk chatCompletion,
+    @JsonProperty("model") String model,
+    @JsonProperty("created") long created,
+    @JsonProperty("usage") ChatCompletionPayload.Usage usage,
+    @JsonProperty("choices") List<ChoiceDelta> choices) {
+
+  boolean isError() {
+    return success != null && !success && code != 0;
+  }
+
+  @JsonIgnoreProperties(ignoreUnknown = true)
+  record ChoiceDelta(
+      @JsonProperty("index") int index,
+      @JsonProperty("delta") Delta delta,
+      @JsonProperty("finish_reason") String finishReason) {}
+
+  @JsonIgnoreProperties(ignoreUnknown = true)
+  record Delta(@JsonProperty("role") String role, @JsonProperty("content") String content) {}
+}
@@ -0,0 +1,44 @@
+package nz.ac.auckland.apiproxy.chat.openai;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+
+/** The chat completion object returned by OpenAI, bound directly from the proxy response. */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record ChatCompletionPayload(
+    @JsonProperty("model") String model,
+    @JsonProperty("created") long created,
+    @JsonProperty("usage") Usage usage,
+    @JsonProperty("choices") List<ChoicePayload> choices) {
+
+  @JsonIgnoreProperties(ignoreUnknown = true)
+  public record Usage(
+      @JsonProperty("prompt_tokens") int promptTokens,
+      @JsonProperty("completion_tokens") int completionTokens,
+      @JsonProperty("total_tokens") int totalTokens,
+      @JsonProperty("prompt_tokens_details") PromptTokensDetails promptTokensDetails) {
+
+    public Usage(int promptTokens, int completionTokens, int totalTokens) {
+      this(promptTokens, completionTokens, totalTokens, null);
+    }
+
+    /** Returns how many prompt tokens were served from the provider's prompt cache. */
+    public int cachedTokens() {
+      return promptTokensDetails == null ? 0 : promptTokensDetails.cachedTokens();
+    }
+  }
+
+  @JsonIgnoreProperties(ignoreUnknown = true)
+  public record PromptTokensDetails(@JsonProperty("cached_tokens") int cachedTokens) {}
+
+  @JsonIgnoreProperties(ignoreUnknown = true)
+  public record ChoicePayload(
+      @JsonProperty("index") int index,
+      @JsonProperty("message") MessagePayload message,
+      @JsonProperty("finish_reason") String finishReason) {}
+
+  @JsonIgnoreProperties(ignoreUnknown = true)
+  public record MessagePayload(
+      @JsonProperty("role") String role, @JsonProperty("content") String content) {}
+}
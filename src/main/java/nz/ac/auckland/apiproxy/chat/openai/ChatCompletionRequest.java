@@ -1,18 +1,38 @@
 package nz.ac.auckland.apiproxy.chat.openai;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import javax.json.Json;
-import javax.json.JsonArrayBuilder;
-import javax.json.JsonObject;
-import javax.json.JsonObjectBuilder;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
 import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.apiproxy.metrics.Histogram;
+import nz.ac.auckland.apiproxy.metrics.ProxyMetrics;
+import nz.ac.auckland.apiproxy.service.ApiProxyExecutors;
+import nz.ac.auckland.apiproxy.service.ApiProxyHttpClient;
+import nz.ac.auckland.apiproxy.service.ApiProxyJson;
+import nz.ac.auckland.apiproxy.service.CallHandle;
 import nz.ac.auckland.apiproxy.service.EndPoints;
+import nz.ac.auckland.apiproxy.service.JsonStreamingEntity;
+import nz.ac.auckland.apiproxy.service.ProxyCallExecutor;
+import nz.ac.auckland.apiproxy.service.RequestPriority;
+import nz.ac.auckland.apiproxy.service.RetryPolicy;
+import org.apache.http.HttpEntity;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.http.entity.ContentType;
 
 public class ChatCompletionRequest {
 
@@ -34,17 +54,49 @@ public class ChatCompletionRequest {
 
   private static final int NOT_SET = -1;
 
+  private static final ObjectReader RESPONSE_READER =
+      ApiProxyJson.readerFor(ResponseChatCompletionViaProxy.class);
+
+  // Time until a call to each model starts answering, which decides when to hedge calls to it
+  private static final Map<Model, Histogram> RESPONSE_TIMES = answerTimes("chatResponse");
+  private static final Map<Model, Histogram> STREAM_START_TIMES = answerTimes("chatStreamStart");
+
+  private static final Histogram CACHED_PROMPT_PERCENT =
+      ProxyMetrics.histogram("cachedPromptPercent", "%", 1);
+
+  // How far the local prompt token count is off from the billed count, as a share of the latter
+  private static final Histogram PROMPT_TOKEN_DRIFT_PERCENT =
+      ProxyMetrics.histogram("promptTokenDriftPercent", "%", 1);
+
   private ApiProxyConfig config;
 
   // OpenAI required parameters
+  private List<ChatMessage> prefixMessages = List.of();
   private ArrayList<ChatMessage> messages = new ArrayList<>();
 
   // Optional parameters
+  private Model model = null;
   private int maxTokens = NOT_SET;
   private double temperature = NOT_SET;
   private double topP = NOT_SET;
   private int n = NOT_SET;
 
+  private int maxPromptTokens = NOT_SET;
+
+  private boolean gzipRequestBody = false;
+
+  private ChatCompletionCache cache = null;
+
+  private RetryPolicy retryPolicy = RetryPolicy.defaults();
+
+  private CallHandle callHandle = null;
+
+  private RequestPriority priority = RequestPriority.INTERACTIVE;
+
+  private HedgePolicy hedgePolicy = null;
+
+  private ConversationHistoryPolicy historyPolicy = ConversationHistoryPolicy.KEEP_ALL;
+
   public ChatCompletionRequest(ApiProxyConfig config) {
     this.config = config;
   }
@@ -54,10 +106,48 @@ public class ChatCompletionRequest {
   }
 
   public ChatCompletionRequest addMessage(ChatMessage message) {
-    messages.add(message);
+    synchronized (messages) {
+      messages.add(message);
+    }
+    return this;
+  }
+
+  /** Returns a snapshot of the conversation, which may grow while a request is running. */
+  public List<ChatMessage> getMessages() {
+    synchronized (messages) {
+      return List.copyOf(messages);
+    }
+  }
+
+  /**
+   * Sets messages sent ahead of the conversation on every request, such as a character prompt.
+   * The history policy does not apply to them, so as long as they stay byte-identical between
+   * requests, the provider can reuse its cache of the prompt prefix.
+   */
+  public ChatCompletionRequest setPrefixMessages(List<ChatMessage> prefixMessages) {
+    this.prefixMessages = prefixMessages == null ? List.of() : List.copyOf(prefixMessages);
+    return this;
+  }
+
+  public List<ChatMessage> getPrefixMessages() {
+    return prefixMessages;
+  }
+
+  public ChatCompletionRequest setHistoryPolicy(ConversationHistoryPolicy historyPolicy) {
+    this.historyPolicy =
+        historyPolicy == null ? ConversationHistoryPolicy.KEEP_ALL : historyPolicy;
     return this;
   }
 
+  public ChatCompletionRequest setModel(Model model) {
+    this.model = model;
+    return this;
+  }
+
+  public Model getModel() {
+    return model;
+  }
+
   public ChatCompletionRequest setMaxTokens(int maxTokens) {
     if (maxTokens < 1) {
       throw new IllegalArgumentException(
@@ -93,66 +183,439 @@ public class ChatCompletionRequest {
     return this;
   }
 
-  @SuppressWarnings("resource")
-  public ChatCompletionResult execute() throws ApiProxyException {
-    try {
-      JsonArrayBuilder jsonMessages = Json.createArrayBuilder();
-      for (ChatMessage message : messages) {
-        jsonMessages.add(
-            Json.createObjectBuilder() //
-                .add("role", message.getRole()) //
-                .add("content", message.getContent()));
-      }
+  /**
+   * Sets a limit on the locally counted prompt size. Requests over the limit are rejected with an
+   * {@link ApiProxyException} before anything is sent.
+   */
+  public ChatCompletionRequest setMaxPromptTokens(int maxPromptTokens) {
+    if (maxPromptTokens < 1) {
+      throw new IllegalArgumentException(
+          "'max_prompt_tokens' must be at least 1, but was given " + maxPromptTokens);
+    }
+    this.maxPromptTokens = maxPromptTokens;
+    return this;
+  }
+
+  /** Counts the tokens of the messages this request would send, using the model's encoding. */
+  public int estimatePromptTokens() {
+    return estimatePromptTokens(selectMessages());
+  }
+
+  public ChatCompletionRequest setGzipRequestBody(boolean gzipRequestBody) {
+    this.gzipRequestBody = gzipRequestBody;
+    return this;
+  }
+
+  public ChatCompletionRequest setRetryPolicy(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy == null ? RetryPolicy.none() : retryPolicy;
+    return this;
+  }
 
-      JsonObjectBuilder jsonOverallBuilder =
-          Json.createObjectBuilder() //
-              .add("messages", jsonMessages);
+  /**
+   * Sets the handle used to cancel the next execution or give it a deadline. A handle only
+   * applies to one execution, so set a new one before each.
+   */
+  public ChatCompletionRequest setCallHandle(CallHandle callHandle) {
+    this.callHandle = callHandle;
+    return this;
+  }
 
-      jsonOverallBuilder.add("access_token", config.getApiKey()).add("email", config.getEmail());
+  /** Sets how urgent this request is compared to other calls waiting for the same endpoint. */
+  public ChatCompletionRequest setPriority(RequestPriority priority) {
+    this.priority = priority == null ? RequestPriority.INTERACTIVE : priority;
+    return this;
+  }
 
-      if (maxTokens != NOT_SET) {
-        jsonOverallBuilder.add("max_tokens", maxTokens);
+  /**
+   * Sets when to send a hedged copy of a slow request, or null to never hedge. Hedging suits
+   * interactive turns, where a late reply costs more than the occasional extra request.
+   */
+  public ChatCompletionRequest setHedgePolicy(HedgePolicy hedgePolicy) {
+    this.hedgePolicy = hedgePolicy;
+    return this;
+  }
+
+  public ChatCompletionRequest setCache(ChatCompletionCache cache) {
+    this.cache = cache;
+    return this;
+  }
+
+  /**
+   * Returns a hash identifying the model, sampling parameters and the messages this request would
+   * send. Requests with the same key are expected to produce interchangeable completions.
+   */
+  public String getCacheKey() {
+    return getCacheKey(selectMessages(), model);
+  }
+
+  private String getCacheKey(List<ChatMessage> history, Model model) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      StringBuilder header = new StringBuilder();
+      header.append(model == null ? "default" : model.getModelName());
+      header.append('|').append(maxTokens);
+      header.append('|').append(temperature);
+      header.append('|').append(topP);
+      header.append('|').append(n);
+      updateDigest(digest, header.toString());
+      for (ChatMessage message : history) {
+        updateDigest(digest, message.getRole());
+        updateDigest(digest, message.getContent());
       }
 
-      if (temperature > NOT_SET) {
-        jsonOverallBuilder.add("temperature", temperature);
+      StringBuilder key = new StringBuilder(64);
+      for (byte b : digest.digest()) {
+        key.append(Character.forDigit((b >> 4) & 0xf, 16));
+        key.append(Character.forDigit(b & 0xf, 16));
       }
+      return key.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available.", e);
+    }
+  }
 
-      if (topP > NOT_SET) {
-        jsonOverallBuilder.add("top_p", topP);
+  public ChatCompletionResult execute() throws ApiProxyException {
+    List<ChatMessage> history = selectMessages();
+    String cacheKey = cache == null ? null : getCacheKey(history, model);
+    if (cacheKey != null) {
+      ChatCompletionPayload cached = cache.get(cacheKey);
+      if (cached != null) {
+        ChatCompletionResult result = new ChatCompletionResult(cached);
+        result.setAnsweringModel(model);
+        return result;
       }
+    }
+    if (hedgePolicy != null) {
+      return executeHedged(history, null);
+    }
 
-      if (n != NOT_SET) {
-        jsonOverallBuilder.add("n", n);
+    int estimatedPromptTokens = checkPromptSize(history);
+    ApiProxyHttpClient client = ApiProxyHttpClient.getInstance(config);
+    CallHandle handle = callHandle;
+    JsonStreamingEntity entity = buildEntity(history, false);
+    long start = System.nanoTime();
+    try {
+      ResponseChatCompletionViaProxy responseChat =
+          ProxyCallExecutor.execute(
+              EndPoints.PROXY_OPENAI_CHAT_COMPLETIONS,
+              retryPolicy,
+              priority,
+              handle,
+              url -> {
+                HttpPost httpPost = new HttpPost(url);
+                httpPost.setHeader("Content-Type", "application/json");
+                httpPost.setHeader("Accept", "application/json");
+                httpPost.setEntity(entity);
+
+                ResponseChatCompletionViaProxy response =
+                    client.execute(
+                        httpPost,
+                        httpResponse ->
+                            RESPONSE_READER.readValue(httpResponse.getEntity().getContent()),
+                        handle);
+
+                if (!response.success && response.code != 0) {
+                  throw new ApiProxyException(
+                      "Problem calling API: " + response.message, response.code);
+                }
+                return response;
+              });
+      getAnswerTimes(model, false).record(System.nanoTime() - start);
+
+      ChatCompletionResult result = new ChatCompletionResult(responseChat.chat_completion);
+      result.setAnsweringModel(model);
+      if (cacheKey != null && result.getNumChoices() > 0) {
+        cache.put(cacheKey, responseChat.chat_completion);
       }
+      result.setEstimatedPromptTokens(estimatedPromptTokens);
+      recordUsage(result, start);
+      return result;
 
-      CloseableHttpClient client = HttpClients.createDefault();
+    } catch (ApiProxyException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new ApiProxyException("Problem calling API: " + e.getMessage(), e);
+    }
+  }
 
-      ResponseChatCompletionViaProxy responseChat = null;
-      JsonObject value = jsonOverallBuilder.build();
+  /**
+   * Executes the request in streaming mode. Content deltas are passed to the listener as soon as
+   * they arrive; the fully assembled result is returned once the stream ends. If the proxy answers
+   * with a regular JSON response instead of an event stream, the whole reply is delivered as a
+   * single delta.
+   */
+  public ChatCompletionResult executeStreaming(Consumer<String> onDelta) throws ApiProxyException {
+    List<ChatMessage> history = selectMessages();
+    String cacheKey = cache == null ? null : getCacheKey(history, model);
+    if (cacheKey != null) {
+      ChatCompletionPayload cached = cache.get(cacheKey);
+      if (cached != null) {
+        ChatCompletionResult result = new ChatCompletionResult(cached);
+        result.setAnsweringModel(model);
+        if (result.getNumChoices() > 0) {
+          onDelta.accept(result.getChoice(0).getChatMessage().getContent());
+        }
+        return result;
+      }
+    }
+    if (hedgePolicy != null) {
+      return executeHedged(history, onDelta);
+    }
 
-      HttpPost httpPost = new HttpPost(EndPoints.PROXY_OPENAI_CHAT_COMPLETIONS);
-      httpPost.setHeader("Content-Type", "application/json");
-      httpPost.setHeader("Accept", "application/json");
-      httpPost.setEntity(new StringEntity(value.toString()));
-      ObjectMapper mapperApiMapper = new ObjectMapper();
+    int estimatedPromptTokens = checkPromptSize(history);
+    ApiProxyHttpClient client = ApiProxyHttpClient.getInstance(config);
+    CallHandle handle = callHandle;
+    JsonStreamingEntity entity = buildEntity(history, true);
+    Histogram startTimes = getAnswerTimes(model, true);
+    long start = System.nanoTime();
+    AtomicBoolean answering = new AtomicBoolean();
+    Consumer<String> timedDelta =
+        delta -> {
+          if (answering.compareAndSet(false, true)) {
+            startTimes.record(System.nanoTime() - start);
+          }
+          onDelta.accept(delta);
+        };
+    try {
+      ChatCompletionResult result =
+          ProxyCallExecutor.execute(
+              EndPoints.PROXY_OPENAI_CHAT_COMPLETIONS,
+              retryPolicy,
+              priority,
+              handle,
+              url -> {
+                HttpPost httpPost = new HttpPost(url);
+                httpPost.setHeader("Content-Type", "application/json");
+                httpPost.setHeader("Accept", "text/event-stream, application/json");
+                httpPost.setEntity(entity);
 
-      responseChat =
-          (ResponseChatCompletionViaProxy)
-              client.execute(
-                  httpPost,
-                  httpResponse ->
-                      mapperApiMapper.readValue(
-                          httpResponse.getEntity().getContent(),
-                          ResponseChatCompletionViaProxy.class));
+                ChatCompletionStreamParser parser = new ChatCompletionStreamParser(timedDelta);
+                try {
+                  client.execute(
+                      httpPost,
+                      httpResponse -> {
+                        HttpEntity body = httpResponse.getEntity();
+                        ContentType contentType = ContentType.get(body);
+                        if (contentType != null
+                            && contentType.getMimeType().equalsIgnoreCase("text/event-stream")) {
+                          parser.parseEventStream(body.getContent());
+                        } else {
+                          parser.parseEnvelope(body.getContent());
+                        }
+                        return null;
+                      },
+                      handle);
+                  return parser.getResult();
+                } catch (IOException | ApiProxyException e) {
+                  if (parser.hasDelivered()) {
+                    // Part of the reply was already shown, so it cannot be retried, whatever the
+                    // failure. The exception carries no code or I/O cause so it is never retried.
+                    throw new ApiProxyException(
+                        "Problem calling API: the reply was cut off (" + e.getMessage() + ")");
+                  }
+                  throw e;
+                }
+              });
 
-      if (!responseChat.success && responseChat.code != 0) {
-        throw new ApiProxyException("Problem calling API: " + responseChat.message);
+      result.setAnsweringModel(model);
+      result.setEstimatedPromptTokens(estimatedPromptTokens);
+      recordUsage(result, start);
+      if (cacheKey != null && result.getNumChoices() > 0) {
+        cache.put(cacheKey, result.toPayload());
       }
-      return new ChatCompletionResult(responseChat.chat_completion);
+      return result;
 
+    } catch (ApiProxyException e) {
+      throw e;
     } catch (Exception e) {
-      throw new ApiProxyException("Problem calling API: " + e.getMessage());
+      throw new ApiProxyException("Problem calling API: " + e.getMessage(), e);
+    }
+  }
+
+  public CompletableFuture<ChatCompletionResult> executeAsync() {
+    return executeAsync(ApiProxyExecutors.getDefaultExecutor());
+  }
+
+  public CompletableFuture<ChatCompletionResult> executeAsync(Executor executor) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            return execute();
+          } catch (ApiProxyException e) {
+            throw new CompletionException(e);
+          }
+        },
+        executor);
+  }
+
+  public CompletableFuture<ChatCompletionResult> executeStreamingAsync(Consumer<String> onDelta) {
+    return executeStreamingAsync(onDelta, ApiProxyExecutors.getDefaultExecutor());
+  }
+
+  public CompletableFuture<ChatCompletionResult> executeStreamingAsync(
+      Consumer<String> onDelta, Executor executor) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            return executeStreaming(onDelta);
+          } catch (ApiProxyException e) {
+            throw new CompletionException(e);
+          }
+        },
+        executor);
+  }
+
+  /**
+   * Runs a copy of this request and, if it has not started answering in time, a hedged copy,
+   * using whichever answers first. Replies are streamed to the listener unless it is null. The
+   * reply is cached under the model that wrote it, so a hedge answered by a fallback model is
+   * never replayed for requests to the preferred one.
+   */
+  private ChatCompletionResult executeHedged(List<ChatMessage> history, Consumer<String> onDelta)
+      throws ApiProxyException {
+    HedgePolicy policy = hedgePolicy;
+    CallHandle handle = callHandle;
+    long delay = policy.getDelayMillis(getAnswerTimes(model, onDelta != null));
+    Model hedgeModel = policy.getModel() == null ? model : policy.getModel();
+    ChatCompletionResult result =
+        new HedgedExecution(policy, onDelta)
+            .run(copy(history, model), copy(history, hedgeModel), handle, delay);
+    if (cache != null && result.getNumChoices() > 0) {
+      cache.put(getCacheKey(history, result.getAnsweringModel()), result.toPayload());
+    }
+    return result;
+  }
+
+  /**
+   * Returns the times calls to the given model took to start answering: the first delta of a
+   * streamed reply, or the whole reply otherwise.
+   */
+  static Histogram getAnswerTimes(Model model, boolean streaming) {
+    return (streaming ? STREAM_START_TIMES : RESPONSE_TIMES).get(model);
+  }
+
+  private static Map<Model, Histogram> answerTimes(String name) {
+    // A request without a model is answered by the proxy's default one, kept under the null key
+    Map<Model, Histogram> histograms = new HashMap<>();
+    histograms.put(null, ProxyMetrics.latency(name + ".default"));
+    for (Model model : Model.values()) {
+      histograms.put(model, ProxyMetrics.latency(name + "." + model.getModelName()));
+    }
+    return histograms;
+  }
+
+  /** Returns a request sending exactly the given messages with this request's settings. */
+  private ChatCompletionRequest copy(List<ChatMessage> history, Model model) {
+    ChatCompletionRequest copy = new ChatCompletionRequest(config);
+    copy.messages.addAll(history);
+    copy.model = model;
+    copy.maxTokens = maxTokens;
+    copy.temperature = temperature;
+    copy.topP = topP;
+    copy.n = n;
+    copy.maxPromptTokens = maxPromptTokens;
+    copy.gzipRequestBody = gzipRequestBody;
+    copy.retryPolicy = retryPolicy;
+    copy.priority = priority;
+    return copy;
+  }
+
+  private void updateDigest(MessageDigest digest, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    // Length prefix so that e.g. ("ab", "c") and ("a", "bc") hash differently
+    digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+    digest.update(bytes);
+  }
+
+  private void recordUsage(ChatCompletionResult result, long startNanos) {
+    long elapsed = System.nanoTime() - startNanos;
+    long tokens = result.getUsageCompletionTokens();
+    if (tokens > 0 && elapsed > 0) {
+      ProxyMetrics.TOKENS_PER_SECOND.record(tokens * TimeUnit.SECONDS.toNanos(1) / elapsed);
+    }
+    if (result.getUsagePromptTokens() > 0) {
+      CACHED_PROMPT_PERCENT.record(
+          100L * result.getUsageCachedTokens() / result.getUsagePromptTokens());
+      if (result.getEstimatedPromptTokens() >= 0) {
+        PROMPT_TOKEN_DRIFT_PERCENT.record(
+            100L * Math.abs(result.getPromptTokenDrift()) / result.getUsagePromptTokens());
+      }
+    }
+  }
+
+  private int estimatePromptTokens(List<ChatMessage> history) {
+    return BpeTokenizer.forModel(model).countPromptTokens(history);
+  }
+
+  private int checkPromptSize(List<ChatMessage> history) throws ApiProxyException {
+    int estimate = estimatePromptTokens(history);
+    if (maxPromptTokens != NOT_SET && estimate > maxPromptTokens) {
+      throw new ApiProxyException(
+          "The prompt has about "
+              + estimate
+              + " tokens, which is over the limit of "
+              + maxPromptTokens
+              + " tokens.");
     }
+    return estimate;
+  }
+
+  private List<ChatMessage> selectMessages() {
+    // Copy the selection so a retry sends exactly the same messages
+    List<ChatMessage> history = historyPolicy.select(getMessages(), model);
+    List<ChatMessage> selected = new ArrayList<>(prefixMessages.size() + history.size());
+    selected.addAll(prefixMessages);
+    selected.addAll(history);
+    return selected;
+  }
+
+  JsonStreamingEntity buildEntity(List<ChatMessage> history, boolean stream) {
+    return new JsonStreamingEntity(json -> writePayload(json, history, stream), gzipRequestBody);
+  }
+
+  private void writePayload(JsonGenerator json, List<ChatMessage> history, boolean stream)
+      throws IOException {
+    json.writeStartObject();
+
+    if (model != null) {
+      json.writeStringField("model", model.getModelName());
+    }
+
+    json.writeArrayFieldStart("messages");
+    for (ChatMessage message : history) {
+      json.writeStartObject();
+      json.writeStringField("role", message.getRole());
+      json.writeStringField("content", message.getContent());
+      json.writeEndObject();
+    }
+    json.writeEndArray();
+
+    json.writeStringField("access_token", config.getApiKey());
+    json.writeStringField("email", config.getEmail());
+
+    if (maxTokens != NOT_SET) {
+      json.writeNumberField("max_tokens", maxTokens);
+    }
+
+    if (temperature > NOT_SET) {
+      json.writeNumberField("temperature", temperature);
+    }
+
+    if (topP > NOT_SET) {
+      json.writeNumberField("top_p", topP);
+    }
+
+    if (n != NOT_SET) {
+      json.writeNumberField("n", n);
+    }
+
+    if (stream) {
+      json.writeBooleanField("stream", true);
+      json.writeObjectFieldStart("stream_options");
+      json.writeBooleanField("include_usage", true);
+      json.writeEndObject();
+    }
+
+    json.writeEndObject();
   }
 }
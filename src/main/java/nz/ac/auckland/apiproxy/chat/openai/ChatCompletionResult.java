@@ -2,7 +2,7 @@ package nz.ac.auckland.apiproxy.chat.openai;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest.Model;
 
 public class ChatCompletionResult {
 
@@ -12,35 +12,52 @@ public class ChatCompletionResult {
   private int usagePromptToken;
   private int usageCompletionTokens;
   private int usageTotalTokens;
+  private int usageCachedTokens;
 
   private List<Choice> choices = new ArrayList<>();
 
-  protected ChatCompletionResult(Map<String, Object> chatCompletion) {
+  private int estimatedPromptTokens = -1;
+
+  private Model answeringModel;
+
+  protected ChatCompletionResult(ChatCompletionPayload chatCompletion) {
     parse(chatCompletion);
   }
 
-  private void parse(Map<String, Object> chatCompletion) {
-    model = chatCompletion.get("model").toString();
-    created =
-        chatCompletion.get("created") == null
-            ? 0
-            : Long.parseLong(chatCompletion.get("created").toString());
-    usagePromptToken = getUsage("prompt_tokens", chatCompletion);
-    usageCompletionTokens = getUsage("completion_tokens", chatCompletion);
-    usageTotalTokens = getUsage("total_tokens", chatCompletion);
-
-    List<?> choicesJson = (List<?>) chatCompletion.get("choices");
-    for (int c = 0; c < choicesJson.size(); c++) {
-      Map<?, ?> choiceJson = (Map<?, ?>) choicesJson.get(c);
-      Map<?, ?> messageJson = (Map<?, ?>) choiceJson.get("message");
+  protected ChatCompletionResult(
+      String model,
+      long created,
+      int usagePromptToken,
+      int usageCompletionTokens,
+      int usageTotalTokens,
+      List<Choice> choices) {
+    this.model = model;
+    this.created = created;
+    this.usagePromptToken = usagePromptToken;
+    this.usageCompletionTokens = usageCompletionTokens;
+    this.usageTotalTokens = usageTotalTokens;
+    this.choices.addAll(choices);
+  }
 
-      String role = messageJson.get("role").toString();
-      String content = messageJson.get("content").toString();
+  private void parse(ChatCompletionPayload chatCompletion) {
+    model = chatCompletion.model();
+    created = chatCompletion.created();
 
-      int index = Integer.parseInt(choiceJson.get("index").toString());
-      String finishReason = choiceJson.get("finish_reason").toString();
+    ChatCompletionPayload.Usage usage = chatCompletion.usage();
+    if (usage != null) {
+      usagePromptToken = usage.promptTokens();
+      usageCompletionTokens = usage.completionTokens();
+      usageTotalTokens = usage.totalTokens();
+      usageCachedTokens = usage.cachedTokens();
+    }
 
-      choices.add(new Choice(new ChatMessage(role, content), index, finishReason));
+    if (chatCompletion.choices() == null) {
+      return;
+    }
+    for (ChatCompletionPayload.ChoicePayload choiceJson : chatCompletion.choices()) {
+      ChatCompletionPayload.MessagePayload messageJson = choiceJson.message();
+      ChatMessage message = new ChatMessage(messageJson.role(), messageJson.content());
+      choices.add(new Choice(message, choiceJson.index(), choiceJson.finishReason()));
     }
   }
 
@@ -56,17 +73,54 @@ public class ChatCompletionResult {
     return usageTotalTokens;
   }
 
+  /**
+   * Returns how many of the prompt tokens the provider served from its prompt cache. These are
+   * billed at a discount and processed faster, and only occur when the start of the prompt is
+   * byte-identical to a recent request.
+   */
+  public int getUsageCachedTokens() {
+    return usageCachedTokens;
+  }
+
+  void setUsageCachedTokens(int usageCachedTokens) {
+    this.usageCachedTokens = usageCachedTokens;
+  }
+
+  /**
+   * Returns the prompt size counted locally before the request was sent, or -1 if no estimate was
+   * made (e.g. for a result served from the cache).
+   */
+  public int getEstimatedPromptTokens() {
+    return estimatedPromptTokens;
+  }
+
+  /** Returns how many more prompt tokens were billed than estimated locally. */
+  public int getPromptTokenDrift() {
+    return estimatedPromptTokens < 0 ? 0 : usagePromptToken - estimatedPromptTokens;
+  }
+
+  void setEstimatedPromptTokens(int estimatedPromptTokens) {
+    this.estimatedPromptTokens = estimatedPromptTokens;
+  }
+
   public String getModel() {
     return model;
   }
 
-  public long getCreated() {
-    return created;
+  /**
+   * Returns the model the reply was requested from. For a hedged request this is the model of the
+   * copy that answered first, which may differ from the model the request was made with.
+   */
+  public Model getAnsweringModel() {
+    return answeringModel;
+  }
+
+  void setAnsweringModel(Model answeringModel) {
+    this.answeringModel = answeringModel;
   }
 
-  private int getUsage(String key, Map<String, Object> chatCompletion) {
-    Map<?, ?> usage = (Map<?, ?>) chatCompletion.get("usage");
-    return Integer.parseInt(usage.get(key).toString());
+  public long getCreated() {
+    return created;
   }
 
   public Choice getChoice(int index) {
@@ -84,4 +138,25 @@ public class ChatCompletionResult {
   public Iterable<Choice> getChoices() {
     return choices;
   }
+
+  ChatCompletionPayload toPayload() {
+    List<ChatCompletionPayload.ChoicePayload> choicePayloads = new ArrayList<>(choices.size());
+    for (Choice choice : choices) {
+      ChatMessage message = choice.getChatMessage();
+      choicePayloads.add(
+          new ChatCompletionPayload.ChoicePayload(
+              choice.getIndex(),
+              new ChatCompletionPayload.MessagePayload(message.getRole(), message.getContent()),
+              choice.getFinishReason()));
+    }
+    return new ChatCompletionPayload(
+        model,
+        created,
+        new ChatCompletionPayload.Usage(
+            usagePromptToken,
+            usageCompletionTokens,
+            usageTotalTokens,
+            new ChatCompletionPayload.PromptTokensDetails(usageCachedTokens)),
+        choicePayloads);
+  }
 }
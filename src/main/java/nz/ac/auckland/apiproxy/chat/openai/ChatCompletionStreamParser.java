@@ -0,0 +1,242 @@
+package nz.ac.auckland.apiproxy.chat.openai;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.apiproxy.service.ApiProxyJson;
+
+/**
+ * Assembles a chat completion from server-sent events. Only the deltas of the first choice are
+ * forwarded to the listener, the other choices are still collected into the final result.
+ *
+ * <p>A reply arrives as dozens of small events, so the stream is read as bytes and each event's
+ * data is bound straight from them into a {@link ChatCompletionChunk}, without decoding lines
+ * into strings or building a JSON tree first.
+ */
+class ChatCompletionStreamParser {
+
+  private static final byte[] DATA = "data:".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] DONE = "[DONE]".getBytes(StandardCharsets.US_ASCII);
+
+  private static final ObjectReader CHUNK_READER =
+      ApiProxyJson.readerFor(ChatCompletionChunk.class);
+  private static final ObjectReader ENVELOPE_READER =
+      ApiProxyJson.readerFor(ResponseChatCompletionViaProxy.class);
+
+  private final Consumer<String> onDelta;
+
+  private String model = null;
+  private long created = 0;
+  private int usagePromptTokens = 0;
+  private int usageCompletionTokens = 0;
+  private int usageTotalTokens = 0;
+  private int usageCachedTokens = 0;
+
+  private final Map<Integer, StringBuilder> contents = new TreeMap<>();
+  private final Map<Integer, String> roles = new TreeMap<>();
+  private final Map<Integer, String> finishReasons = new TreeMap<>();
+
+  private String errorMessage = null;
+  private Integer errorCode = null;
+  private boolean delivered = false;
+  private boolean terminated = false;
+
+  // The data of the event being read, joined from its data lines
+  private byte[] data = new byte[1024];
+  private int dataLength = 0;
+
+  ChatCompletionStreamParser(Consumer<String> onDelta) {
+    this.onDelta = onDelta;
+  }
+
+  void parseEventStream(InputStream stream) throws IOException {
+    byte[] buffer = new byte[8192];
+    int start = 0;
+    int end = 0;
+    while (true) {
+      int newline = indexOf(buffer, (byte) '\n', start, end);
+      if (newline < 0) {
+        // Keep the partial line and read more of the stream behind it
+        System.arraycopy(buffer, start, buffer, 0, end - start);
+        end -= start;
+        start = 0;
+        if (end == buffer.length) {
+          buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int read = stream.read(buffer, end, buffer.length - end);
+        if (read < 0) {
+          break;
+        }
+        end += read;
+        continue;
+      }
+      int lineEnd = newline > start && buffer[newline - 1] == '\r' ? newline - 1 : newline;
+      if (!readLine(buffer, start, lineEnd)) {
+        return;
+      }
+      start = newline + 1;
+    }
+    if (start < end && !readLine(buffer, start, end)) {
+      return;
+    }
+    if (dataLength > 0 && !dispatch()) {
+      return;
+    }
+    // A stream ending without [DONE] or a finish reason was cut off, however it ended
+    if (!terminated) {
+      throw new IOException("the stream ended before the reply was complete");
+    }
+  }
+
+  void parseEnvelope(InputStream stream) throws IOException {
+    ResponseChatCompletionViaProxy envelope = ENVELOPE_READER.readValue(stream);
+    if (!envelope.success && envelope.code != 0) {
+      errorMessage = envelope.message;
+      errorCode = envelope.code;
+      return;
+    }
+    ChatCompletionResult result = new ChatCompletionResult(envelope.chat_completion);
+    model = result.getModel();
+    created = result.getCreated();
+    usagePromptTokens = result.getUsagePromptTokens();
+    usageCompletionTokens = result.getUsageCompletionTokens();
+    usageTotalTokens = result.getUsageTotalTokens();
+    usageCachedTokens = result.getUsageCachedTokens();
+    for (Choice choice : result.getChoices()) {
+      roles.put(choice.getIndex(), choice.getChatMessage().getRole());
+      appendContent(choice.getIndex(), choice.getChatMessage().getContent());
+      finishReasons.put(choice.getIndex(), choice.getFinishReason());
+    }
+  }
+
+  boolean hasDelivered() {
+    return delivered;
+  }
+
+  ChatCompletionResult getResult() throws ApiProxyException {
+    if (errorMessage != null) {
+      throw new ApiProxyException("Problem calling API: " + errorMessage, errorCode);
+    }
+    List<Choice> choices = new ArrayList<>();
+    for (Map.Entry<Integer, StringBuilder> entry : contents.entrySet()) {
+      int index = entry.getKey();
+      ChatMessage message =
+          new ChatMessage(roles.getOrDefault(index, "assistant"), entry.getValue().toString());
+      choices.add(new Choice(message, index, finishReasons.get(index)));
+    }
+    ChatCompletionResult result =
+        new ChatCompletionResult(
+            model, created, usagePromptTokens, usageCompletionTokens, usageTotalTokens, choices);
+    result.setUsageCachedTokens(usageCachedTokens);
+    return result;
+  }
+
+  /**
+   * Reads one line of the stream. Returns false once the stream is over, i.e. after [DONE] or an
+   * error.
+   */
+  private boolean readLine(byte[] line, int start, int end) throws IOException {
+    if (start == end) {
+      // A blank line terminates the current event
+      if (dataLength == 0) {
+        return true;
+      }
+      boolean more = dispatch();
+      dataLength = 0;
+      return more;
+    }
+    if (end - start < DATA.length
+        || !Arrays.equals(line, start, start + DATA.length, DATA, 0, DATA.length)) {
+      return true;
+    }
+
+    start += DATA.length;
+    while (start < end && line[start] <= ' ') {
+      start++;
+    }
+    while (end > start && line[end - 1] <= ' ') {
+      end--;
+    }
+    int length = end - start + (dataLength > 0 ? 1 : 0);
+    if (dataLength + length > data.length) {
+      data = Arrays.copyOf(data, Math.max(data.length * 2, dataLength + length));
+    }
+    if (dataLength > 0) {
+      data[dataLength++] = '\n';
+    }
+    System.arraycopy(line, start, data, dataLength, end - start);
+    dataLength += end - start;
+    return true;
+  }
+
+  private boolean dispatch() throws IOException {
+    if (Arrays.equals(data, 0, dataLength, DONE, 0, DONE.length)) {
+      terminated = true;
+      return false;
+    }
+    ChatCompletionChunk chunk = CHUNK_READER.readValue(data, 0, dataLength);
+    if (chunk.isError()) {
+      errorMessage = chunk.message();
+      errorCode = chunk.code();
+      return false;
+    }
+    if (chunk.chatCompletion() != null) {
+      chunk = chunk.chatCompletion();
+    }
+
+    if (model == null && chunk.model() != null) {
+      model = chunk.model();
+    }
+    if (created == 0) {
+      created = chunk.created();
+    }
+    if (chunk.usage() != null) {
+      usagePromptTokens = chunk.usage().promptTokens();
+      usageCompletionTokens = chunk.usage().completionTokens();
+      usageTotalTokens = chunk.usage().totalTokens();
+      usageCachedTokens = chunk.usage().cachedTokens();
+    }
+    if (chunk.choices() == null) {
+      return true;
+    }
+    for (ChatCompletionChunk.ChoiceDelta choice : chunk.choices()) {
+      ChatCompletionChunk.Delta delta = choice.delta();
+      if (delta != null && delta.role() != null) {
+        roles.put(choice.index(), delta.role());
+      }
+      if (delta != null && delta.content() != null) {
+        appendContent(choice.index(), delta.content());
+      }
+      if (choice.finishReason() != null) {
+        finishReasons.put(choice.index(), choice.finishReason());
+        terminated = true;
+      }
+    }
+    return true;
+  }
+
+  private void appendContent(int index, String content) {
+    contents.computeIfAbsent(index, key -> new StringBuilder()).append(content);
+    if (index == 0 && !content.isEmpty()) {
+      delivered = true;
+      onDelta.accept(content);
+    }
+  }
+
+  private static int indexOf(byte[] bytes, byte value, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (bytes[i] == value) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,26 @@
+package nz.ac.auckland.apiproxy.chat.openai;
+
+import java.util.List;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest.Model;
+
+/**
+ * Decides which part of a conversation is sent with each chat completion request. The full
+ * history stays in the request; only the selected messages are serialized. Policies may keep
+ * state about the conversation, so each request should have its own instance.
+ */
+@FunctionalInterface
+public interface ConversationHistoryPolicy {
+
+  /** Sends the whole conversation, the behaviour of a request without a policy. */
+  ConversationHistoryPolicy KEEP_ALL = history -> history;
+
+  List<ChatMessage> select(List<ChatMessage> history);
+
+  /**
+   * Selects the messages to send to the given model, or to the default model if it is null.
+   * Policies that count tokens override this to count with the model's own encoding.
+   */
+  default List<ChatMessage> select(List<ChatMessage> history, Model model) {
+    return select(history);
+  }
+}
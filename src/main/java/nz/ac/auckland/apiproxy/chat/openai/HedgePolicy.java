@@ -0,0 +1,90 @@
+package nz.ac.auckland.apiproxy.chat.openai;
+
+import java.util.concurrent.atomic.AtomicLong;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest.Model;
+import nz.ac.auckland.apiproxy.metrics.Histogram;
+
+/**
+ * Decides when a chat request sends a second, hedged copy of itself. If the first call has not
+ * started answering within the given percentile of the observed answer times, an identical request
+ * is sent, optionally to another model, and whichever answers first is used while the other is
+ * cancelled. With several proxy hosts configured, the hedge usually lands on another host, as the
+ * first call counts against the host it is waiting on.
+ */
+public class HedgePolicy {
+
+  public static HedgePolicy afterPercentile(double percentile) {
+    return new HedgePolicy(percentile);
+  }
+
+  private final double percentile;
+  private Model model = null;
+  private long minSamples = 20;
+  private long defaultDelayMillis = 2000;
+  private long minDelayMillis = 100;
+
+  private final AtomicLong hedges = new AtomicLong();
+  private final AtomicLong hedgeWins = new AtomicLong();
+
+  private HedgePolicy(double percentile) {
+    if (percentile <= 0 || percentile >= 100) {
+      throw new IllegalArgumentException(
+          "The percentile must be in (0, 100), but was given " + percentile);
+    }
+    this.percentile = percentile;
+  }
+
+  /** Sets the model the hedge is sent to, or null to use the same model as the first call. */
+  public HedgePolicy setModel(Model model) {
+    this.model = model;
+    return this;
+  }
+
+  /** Sets how many answer times must be observed before the percentile is trusted. */
+  public HedgePolicy setMinSamples(long minSamples) {
+    this.minSamples = minSamples;
+    return this;
+  }
+
+  /** Sets the delay used until enough answer times have been observed. */
+  public HedgePolicy setDefaultDelayMillis(long defaultDelayMillis) {
+    this.defaultDelayMillis = defaultDelayMillis;
+    return this;
+  }
+
+  /** Sets the shortest delay, so a run of fast answers does not hedge every call. */
+  public HedgePolicy setMinDelayMillis(long minDelayMillis) {
+    this.minDelayMillis = minDelayMillis;
+    return this;
+  }
+
+  public Model getModel() {
+    return model;
+  }
+
+  /** Returns how long to wait for the first call given the observed answer times, in ms. */
+  public long getDelayMillis(Histogram answerTimes) {
+    if (answerTimes.getCount() < minSamples) {
+      return defaultDelayMillis;
+    }
+    return Math.max(minDelayMillis, (long) answerTimes.getPercentile(percentile));
+  }
+
+  /** Returns how many hedges were sent. */
+  public long getHedgeCount() {
+    return hedges.get();
+  }
+
+  /** Returns how many hedges answered before the call they were hedging. */
+  public long getHedgeWinCount() {
+    return hedgeWins.get();
+  }
+
+  void recordHedge() {
+    hedges.incrementAndGet();
+  }
+
+  void recordHedgeWin() {
+    hedgeWins.incrementAndGet();
+  }
+}
@@ -0,0 +1,163 @@
+package nz.ac.auckland.apiproxy.chat.openai;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest.Model;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.apiproxy.service.CallHandle;
+
+/**
+ * Races a chat request against a hedged copy started after a delay. The first call to answer wins:
+ * for a streamed reply that is the first delta, otherwise the complete result. The other call is
+ * cancelled, and only the winner's deltas reach the listener. The time the loser had waited is
+ * recorded as its answer time, a lower bound, so the slow calls hedging cuts short still count
+ * when the next delay is chosen.
+ */
+class HedgedExecution {
+
+  private final HedgePolicy policy;
+  private final Consumer<String> onDelta;
+  private final CompletableFuture<ChatCompletionResult> outcome = new CompletableFuture<>();
+  private final CallHandle[] handles = new CallHandle[2];
+  private final Model[] models = new Model[2];
+  private final long[] starts = new long[2];
+
+  private int started = 0;
+  private int failed = 0;
+  private int winner = -1;
+  private Throwable primaryFailure = null;
+
+  /** Creates a race for streamed replies, or for complete results if the listener is null. */
+  HedgedExecution(HedgePolicy policy, Consumer<String> onDelta) {
+    this.policy = policy;
+    this.onDelta = onDelta;
+  }
+
+  /**
+   * Runs the primary request, and the hedge if the primary has not answered within the delay.
+   * Both requests are given handles forked from the parent, if there is one.
+   */
+  ChatCompletionResult run(
+      ChatCompletionRequest primary,
+      ChatCompletionRequest hedge,
+      CallHandle parent,
+      long delayMillis)
+      throws ApiProxyException {
+    start(0, primary, parent);
+    try {
+      try {
+        return outcome.get(delayMillis, TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+        start(1, hedge, parent);
+      }
+      return outcome.get();
+    } catch (ExecutionException e) {
+      Throwable cause = unwrap(e);
+      if (cause instanceof ApiProxyException) {
+        throw (ApiProxyException) cause;
+      }
+      throw new ApiProxyException("Problem calling API: " + cause.getMessage(), cause);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ApiProxyException("Problem calling API: the request was interrupted.", e);
+    } finally {
+      cancelLosers();
+    }
+  }
+
+  private synchronized void start(int index, ChatCompletionRequest request, CallHandle parent) {
+    // No need for a hedge once either call has answered or the primary has failed
+    if (outcome.isDone() || winner >= 0) {
+      return;
+    }
+    CallHandle handle = parent == null ? new CallHandle() : parent.fork();
+    handles[index] = handle;
+    models[index] = request.getModel();
+    starts[index] = System.nanoTime();
+    started++;
+    if (index > 0) {
+      policy.recordHedge();
+    }
+
+    request.setCallHandle(handle);
+    CompletableFuture<ChatCompletionResult> future =
+        onDelta == null
+            ? request.executeAsync()
+            : request.executeStreamingAsync(
+                delta -> {
+                  if (claim(index)) {
+                    onDelta.accept(delta);
+                  }
+                });
+    future.whenComplete((result, error) -> finish(index, result, error));
+  }
+
+  /** Makes the given call the winner if there is none yet, returning whether it is the winner. */
+  private boolean claim(int index) {
+    CallHandle loser;
+    synchronized (this) {
+      if (winner >= 0) {
+        return winner == index;
+      }
+      winner = index;
+      loser = handles[1 - index];
+      if (index > 0) {
+        policy.recordHedgeWin();
+      }
+    }
+    if (loser != null) {
+      ChatCompletionRequest.getAnswerTimes(models[1 - index], onDelta != null)
+          .record(System.nanoTime() - starts[1 - index]);
+      loser.cancel();
+    }
+    return true;
+  }
+
+  private void finish(int index, ChatCompletionResult result, Throwable error) {
+    if (error == null) {
+      if (claim(index)) {
+        outcome.complete(result);
+      }
+      return;
+    }
+    synchronized (this) {
+      failed++;
+      if (index == 0) {
+        primaryFailure = error;
+      }
+      if (winner == index) {
+        // The winner failed after it started answering, e.g. its stream was cut off
+        outcome.completeExceptionally(error);
+      } else if (winner < 0 && failed == started) {
+        outcome.completeExceptionally(primaryFailure != null ? primaryFailure : error);
+      }
+    }
+  }
+
+  private void cancelLosers() {
+    CallHandle[] losers;
+    synchronized (this) {
+      losers = handles.clone();
+      if (winner >= 0 && outcome.isDone() && !outcome.isCompletedExceptionally()) {
+        losers[winner] = null;
+      }
+    }
+    for (CallHandle loser : losers) {
+      if (loser != null) {
+        loser.cancel();
+      }
+    }
+  }
+
+  private static Throwable unwrap(Throwable error) {
+    while ((error instanceof ExecutionException || error instanceof CompletionException)
+        && error.getCause() != null) {
+      error = error.getCause();
+    }
+    return error;
+  }
+}
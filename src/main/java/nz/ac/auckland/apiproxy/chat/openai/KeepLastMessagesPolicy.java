@@ -0,0 +1,30 @@
+package nz.ac.auckland.apiproxy.chat.openai;
+
+import java.util.List;
+
+/** Sends the pinned system messages plus the last N other messages. */
+public class KeepLastMessagesPolicy extends PinnedWindowPolicy {
+
+  private final int maxMessages;
+
+  public KeepLastMessagesPolicy(int maxMessages) {
+    if (maxMessages < 1) {
+      throw new IllegalArgumentException(
+          "At least 1 message must be kept, but was given " + maxMessages);
+    }
+    this.maxMessages = maxMessages;
+  }
+
+  @Override
+  protected int windowStart(List<ChatMessage> history, boolean[] pinned) {
+    int kept = 0;
+    int start = history.size();
+    while (start > 0 && kept < maxMessages) {
+      start--;
+      if (!pinned[start]) {
+        kept++;
+      }
+    }
+    return start;
+  }
+}
@@ -0,0 +1,224 @@
+package nz.ac.auckland.apiproxy.chat.openai;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest.Model;
+import nz.ac.auckland.apiproxy.metrics.Histogram;
+import nz.ac.auckland.apiproxy.metrics.ProxyMetrics;
+
+/**
+ * Picks the model for each chat turn. Every model keeps a rolling profile of its recent reply
+ * times; the preferred model is used unless
+ *
+ * <ul>
+ *   <li>the round is about to end, or a large prompt is sent late in the round, in which case the
+ *       fastest model is used, or
+ *   <li>its recent p95 reply time is over the latency budget, in which case the next model in the
+ *       list that is within budget is used.
+ * </ul>
+ *
+ * <p>Samples older than the profile window are dropped, so a model that was avoided for being slow
+ * is tried again once its old samples have aged out. Decisions are logged and counted, and can be
+ * watched through {@link ModelRouterMXBean}.
+ */
+public class ModelRouter implements ModelRouterMXBean {
+
+  private static final int WINDOW_SIZE = 50;
+  private static final int MIN_SAMPLES = 5;
+  private static final int MAX_RECENT_DECISIONS = 50;
+
+  private final List<Model> models;
+  private final Map<Model, Deque<long[]>> samples = new EnumMap<>(Model.class);
+  private final Map<Model, Histogram> replyTimes = new EnumMap<>(Model.class);
+
+  private long latencyBudgetMillis = 6000;
+  private int endgameSeconds = 30;
+  private int largePromptTokens = 1500;
+  private long profileWindowMillis = 120000;
+
+  private final Map<String, Long> decisionCounts = new TreeMap<>();
+  private final Deque<String> recentDecisions = new ArrayDeque<>();
+
+  /**
+   * Creates a router over the given models, most preferred first. The last model is assumed to be
+   * the fastest until reply times have been measured.
+   */
+  public ModelRouter(Model... models) {
+    if (models.length == 0) {
+      throw new IllegalArgumentException("At least one model is needed to route between.");
+    }
+    this.models = List.of(models);
+    for (Model model : models) {
+      samples.put(model, new ArrayDeque<>());
+      replyTimes.put(model, ProxyMetrics.latency("reply." + model.getModelName()));
+    }
+  }
+
+  /** Sets the p95 reply time above which the preferred model is avoided. */
+  public synchronized ModelRouter setLatencyBudgetMillis(long latencyBudgetMillis) {
+    this.latencyBudgetMillis = latencyBudgetMillis;
+    return this;
+  }
+
+  /** Sets how many seconds before the end of the round the fastest model takes over. */
+  public synchronized ModelRouter setEndgameSeconds(int endgameSeconds) {
+    this.endgameSeconds = endgameSeconds;
+    return this;
+  }
+
+  /** Sets the prompt size that counts as large, see {@link #choose(int, int)}. */
+  public synchronized ModelRouter setLargePromptTokens(int largePromptTokens) {
+    this.largePromptTokens = largePromptTokens;
+    return this;
+  }
+
+  /** Sets how long reply times stay in the rolling profile. */
+  public synchronized ModelRouter setProfileWindowMillis(long profileWindowMillis) {
+    this.profileWindowMillis = profileWindowMillis;
+    return this;
+  }
+
+  /**
+   * Returns the model for the next turn.
+   *
+   * @param secondsLeft the seconds left in the round, or 0 or less if no round is running.
+   * @param promptTokens the size of the prompt the turn will send.
+   */
+  public synchronized Model choose(int secondsLeft, int promptTokens) {
+    long now = System.nanoTime();
+    Model preferred = models.get(0);
+    boolean timed = secondsLeft > 0;
+
+    Model model;
+    String reason;
+    if (timed && secondsLeft <= endgameSeconds) {
+      model = fastest(now);
+      reason = "endgame";
+    } else if (timed && secondsLeft <= 2 * endgameSeconds && promptTokens >= largePromptTokens) {
+      // Prompt processing grows with the prompt, so a slow model may not answer in time
+      model = fastest(now);
+      reason = "large prompt";
+    } else if (withinBudget(preferred, now)) {
+      model = preferred;
+      reason = "preferred";
+    } else {
+      model = fastest(now);
+      for (Model candidate : models) {
+        if (withinBudget(candidate, now)) {
+          model = candidate;
+          break;
+        }
+      }
+      reason = "over budget";
+    }
+
+    String decision =
+        String.format(
+            "%s (%s, %ds left, %d prompt tokens, p95 %s)",
+            model.getModelName(),
+            reason,
+            secondsLeft,
+            promptTokens,
+            describeP95(preferred, now));
+    decisionCounts.merge(model.getModelName() + " " + reason, 1L, Long::sum);
+    recentDecisions.addLast(decision);
+    if (recentDecisions.size() > MAX_RECENT_DECISIONS) {
+      recentDecisions.removeFirst();
+    }
+    return model;
+  }
+
+  /** Records how long a model took to reply, from sending the turn to the complete reply. */
+  public synchronized void recordReplyTime(Model model, long nanos) {
+    Deque<long[]> window = samples.get(model);
+    if (window == null) {
+      return;
+    }
+    window.addLast(new long[] {System.nanoTime(), nanos});
+    if (window.size() > WINDOW_SIZE) {
+      window.removeFirst();
+    }
+    replyTimes.get(model).record(nanos);
+  }
+
+  @Override
+  public synchronized Map<String, Long> getDecisionCounts() {
+    return Collections.unmodifiableMap(new TreeMap<>(decisionCounts));
+  }
+
+  @Override
+  public synchronized List<String> getRecentDecisions() {
+    return Collections.unmodifiableList(new ArrayList<>(recentDecisions));
+  }
+
+  @Override
+  public synchronized Map<String, Double> getP95Millis() {
+    long now = System.nanoTime();
+    Map<String, Double> p95 = new LinkedHashMap<>();
+    for (Model model : models) {
+      long nanos = p95Nanos(model, now);
+      p95.put(model.getModelName(), nanos < 0 ? Double.NaN : nanos / 1e6);
+    }
+    return p95;
+  }
+
+  private boolean withinBudget(Model model, long now) {
+    long p95 = p95Nanos(model, now);
+    // Without enough recent samples, give the model the benefit of the doubt
+    return p95 < 0 || p95 <= TimeUnit.MILLISECONDS.toNanos(latencyBudgetMillis);
+  }
+
+  private Model fastest(long now) {
+    Model fastest = models.get(models.size() - 1);
+    long fastestMedian = median(fastest, now);
+    for (Model model : models) {
+      long median = median(model, now);
+      if (median >= 0 && (fastestMedian < 0 || median < fastestMedian)) {
+        fastest = model;
+        fastestMedian = median;
+      }
+    }
+    return fastest;
+  }
+
+  private String describeP95(Model model, long now) {
+    long p95 = p95Nanos(model, now);
+    return p95 < 0 ? "unknown" : TimeUnit.NANOSECONDS.toMillis(p95) + "ms";
+  }
+
+  private long p95Nanos(Model model, long now) {
+    return percentile(model, now, 0.95);
+  }
+
+  private long median(Model model, long now) {
+    return percentile(model, now, 0.5);
+  }
+
+  /** Returns a percentile of the model's recent reply times, or -1 with too few samples. */
+  private long percentile(Model model, long now, double quantile) {
+    Deque<long[]> window = samples.get(model);
+    long cutoff = now - TimeUnit.MILLISECONDS.toNanos(profileWindowMillis);
+    while (!window.isEmpty() && window.peekFirst()[0] - cutoff < 0) {
+      window.removeFirst();
+    }
+    if (window.size() < MIN_SAMPLES) {
+      return -1;
+    }
+    long[] values = new long[window.size()];
+    int i = 0;
+    for (long[] sample : window) {
+      values[i++] = sample[1];
+    }
+    Arrays.sort(values);
+    return values[(int) Math.ceil(quantile * values.length) - 1];
+  }
+}
@@ -0,0 +1,17 @@
+package nz.ac.auckland.apiproxy.chat.openai;
+
+import java.util.List;
+import java.util.Map;
+
+/** Management view of a {@link ModelRouter}'s decisions. */
+public interface ModelRouterMXBean {
+
+  /** Returns how often each model was chosen, keyed by model name and reason. */
+  Map<String, Long> getDecisionCounts();
+
+  /** Returns the latest decisions, oldest first. */
+  List<String> getRecentDecisions();
+
+  /** Returns the recent p95 reply time of each model, or NaN when there are too few samples. */
+  Map<String, Double> getP95Millis();
+}
@@ -0,0 +1,70 @@
+package nz.ac.auckland.apiproxy.chat.openai;
+
+import java.util.ArrayList;
+import java.util.List;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest.Model;
+
+/**
+ * Base for policies that send a window of the most recent messages. The system messages that open
+ * the conversation and the latest system message are pinned, so the character prompt is never
+ * dropped however long the conversation gets.
+ */
+public abstract class PinnedWindowPolicy implements ConversationHistoryPolicy {
+
+  @Override
+  public List<ChatMessage> select(List<ChatMessage> history) {
+    return select(history, null);
+  }
+
+  @Override
+  public List<ChatMessage> select(List<ChatMessage> history, Model model) {
+    boolean[] pinned = markPinned(history);
+    int start = windowStart(history, pinned, model);
+
+    List<ChatMessage> selected = new ArrayList<>(history.size() - start + 2);
+    for (int i = 0; i < history.size(); i++) {
+      if (pinned[i] || i >= start) {
+        selected.add(history.get(i));
+      }
+    }
+    return selected;
+  }
+
+  /**
+   * Returns the index of the oldest unpinned message to send. All messages from this index on are
+   * sent, together with the pinned messages before it.
+   */
+  protected abstract int windowStart(List<ChatMessage> history, boolean[] pinned);
+
+  /** Returns the window start for a request to the given model, which may be null. */
+  protected int windowStart(List<ChatMessage> history, boolean[] pinned, Model model) {
+    return windowStart(history, pinned);
+  }
+
+  protected static boolean[] markPinned(List<ChatMessage> history) {
+    boolean[] pinned = new boolean[history.size()];
+    int leading = countLeadingSystemMessages(history);
+    for (int i = 0; i < leading; i++) {
+      pinned[i] = true;
+    }
+    for (int i = history.size() - 1; i >= leading; i--) {
+      if (isSystem(history.get(i))) {
+        pinned[i] = true;
+        break;
+      }
+    }
+    return pinned;
+  }
+
+  protected static int countLeadingSystemMessages(List<ChatMessage> history) {
+    int count = 0;
+    while (count < history.size() && isSystem(history.get(count))) {
+      count++;
+    }
+    return count;
+  }
+
+  private static boolean isSystem(ChatMessage message) {
+    return "system".equals(message.getRole());
+  }
+}
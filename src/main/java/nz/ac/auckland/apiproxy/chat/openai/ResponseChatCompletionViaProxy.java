@@ -2,7 +2,6 @@ package nz.ac.auckland.apiproxy.chat.openai;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import java.util.Map;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class ResponseChatCompletionViaProxy {
@@ -10,13 +9,13 @@ public class ResponseChatCompletionViaProxy {
   public final Boolean success;
   public final Integer code;
   public final String message;
-  public final Map<String, Object> chat_completion;
+  public final ChatCompletionPayload chat_completion;
 
   public ResponseChatCompletionViaProxy(
       @JsonProperty("success") Boolean success,
       @JsonProperty("code") Integer code,
       @JsonProperty("message") String message,
-      @JsonProperty("chat_completion") Map<String, Object> chat_completion) {
+      @JsonProperty("chat_completion") ChatCompletionPayload chat_completion) {
     this.success = success;
     this.code = code;
     this.message = message;
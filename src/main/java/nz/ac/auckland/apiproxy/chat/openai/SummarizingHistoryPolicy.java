@@ -0,0 +1,126 @@
+package nz.ac.auckland.apiproxy.chat.openai;
+
+import java.util.ArrayList;
+import java.util.List;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest.Model;
+import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
+import nz.ac.auckland.apiproxy.service.RequestPriority;
+
+/**
+ * Sends the pinned system messages, a summary of the older conversation and the most recent
+ * messages. Once enough messages have fallen out of the recent window, a summary covering them is
+ * requested in the background; until it arrives they are still sent as they are, up to twice the
+ * batch size. Only one summary is requested at a time, and all state is guarded by the policy's
+ * lock, so requests may select from any thread while a summary arrives.
+ */
+public class SummarizingHistoryPolicy extends PinnedWindowPolicy {
+
+  private static final String SUMMARY_INSTRUCTION =
+      "Summarize the conversation below in at most five sentences. Keep every name, time, place"
+          + " and fact that was mentioned, and write from the point of view of the assistant.";
+  private static final String SUMMARY_PREFIX = "Summary of the earlier conversation: ";
+
+  private final ApiProxyConfig config;
+  private final KeepLastMessagesPolicy recentWindow;
+  private final int summarizeBatch;
+
+  private String summary = null;
+  private int summarizedUpTo = 0;
+  private boolean summarizing = false;
+
+  public SummarizingHistoryPolicy(ApiProxyConfig config, int keepRecent, int summarizeBatch) {
+    if (summarizeBatch < 1) {
+      throw new IllegalArgumentException(
+          "The summary batch must be at least 1 message, but was given " + summarizeBatch);
+    }
+    this.config = config;
+    this.recentWindow = new KeepLastMessagesPolicy(keepRecent);
+    this.summarizeBatch = summarizeBatch;
+  }
+
+  @Override
+  public synchronized List<ChatMessage> select(List<ChatMessage> history) {
+    boolean[] pinned = markPinned(history);
+    int leading = countLeadingSystemMessages(history);
+    int recentStart = Math.max(leading, recentWindow.windowStart(history, pinned));
+    int unsummarizedStart = Math.max(leading, summarizedUpTo);
+
+    if (!summarizing && recentStart - unsummarizedStart >= summarizeBatch) {
+      // Marked before the request starts, so a summary finishing straight away still clears it
+      summarizing = true;
+      summarize(history.subList(unsummarizedStart, recentStart), recentStart);
+    }
+
+    // Older messages not yet covered by a summary are still sent, within a bound
+    int middleStart = Math.max(unsummarizedStart, recentStart - 2 * summarizeBatch);
+
+    List<ChatMessage> selected = new ArrayList<>();
+    for (int i = 0; i < leading; i++) {
+      selected.add(history.get(i));
+    }
+    if (summary != null) {
+      selected.add(new ChatMessage("system", SUMMARY_PREFIX + summary));
+    }
+    for (int i = leading; i < history.size(); i++) {
+      if (pinned[i] || i >= middleStart) {
+        selected.add(history.get(i));
+      }
+    }
+    return selected;
+  }
+
+  @Override
+  public List<ChatMessage> select(List<ChatMessage> history, Model model) {
+    // The recent window counts messages, not tokens, so the model makes no difference
+    return select(history);
+  }
+
+  public synchronized String getSummary() {
+    return summary;
+  }
+
+  @Override
+  protected int windowStart(List<ChatMessage> history, boolean[] pinned) {
+    return recentWindow.windowStart(history, pinned);
+  }
+
+  private void summarize(List<ChatMessage> messages, int upTo) {
+    StringBuilder transcript = new StringBuilder();
+    if (summary != null) {
+      transcript.append(SUMMARY_PREFIX).append(summary).append("\n\n");
+    }
+    for (ChatMessage message : messages) {
+      if (!"system".equals(message.getRole())) {
+        transcript.append(message.getRole()).append(": ").append(message.getContent()).append('\n');
+      }
+    }
+
+    ChatCompletionRequest request =
+        new ChatCompletionRequest(config)
+            .setN(1)
+            .setTemperature(0.2)
+            .setMaxTokens(200)
+            // Nobody waits on a summary, so it gives way to the player's own requests
+            .setPriority(RequestPriority.SPECULATIVE)
+            .addMessage("system", SUMMARY_INSTRUCTION)
+            .addMessage("user", transcript.toString());
+
+    try {
+      request.executeAsync().whenComplete((result, e) -> finishSummary(result, e, upTo));
+    } catch (RuntimeException e) {
+      finishSummary(null, e, upTo);
+    }
+  }
+
+  private synchronized void finishSummary(ChatCompletionResult result, Throwable error, int upTo) {
+    summarizing = false;
+    if (error != null) {
+      error.printStackTrace();
+      return;
+    }
+    if (result.getNumChoices() > 0) {
+      summary = result.getChoice(0).getChatMessage().getContent();
+      summarizedUpTo = upTo;
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package nz.ac.auckland.apiproxy.chat.openai;
+
+import java.util.List;
+import java.util.function.ToIntFunction;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest.Model;
+
+/**
+ * Sends the pinned system messages plus as many of the most recent messages as fit in a token
+ * budget. The most recent message is always sent, even if it alone exceeds the budget. Unless a
+ * counter is given, tokens are counted with the encoding of the model the request goes to.
+ */
+public class TokenBudgetPolicy extends PinnedWindowPolicy {
+
+  /** Rough estimate of about four characters per token, plus the per-message overhead. */
+  public static final ToIntFunction<ChatMessage> APPROXIMATE_TOKENS =
+      message -> 4 + (message.getContent().length() + 3) / 4;
+
+  private final int maxTokens;
+  private final ToIntFunction<ChatMessage> tokenCounter;
+
+  public TokenBudgetPolicy(int maxTokens) {
+    this(maxTokens, null);
+  }
+
+  public TokenBudgetPolicy(int maxTokens, ToIntFunction<ChatMessage> tokenCounter) {
+    if (maxTokens < 1) {
+      throw new IllegalArgumentException(
+          "The token budget must be at least 1, but was given " + maxTokens);
+    }
+    this.maxTokens = maxTokens;
+    this.tokenCounter = tokenCounter;
+  }
+
+  @Override
+  protected int windowStart(List<ChatMessage> history, boolean[] pinned) {
+    return windowStart(history, pinned, null);
+  }
+
+  @Override
+  protected int windowStart(List<ChatMessage> history, boolean[] pinned, Model model) {
+    ToIntFunction<ChatMessage> tokenCounter =
+        this.tokenCounter != null
+            ? this.tokenCounter
+            : BpeTokenizer.forModel(model)::countMessageTokens;
+    int used = 0;
+    for (int i = 0; i < history.size(); i++) {
+      if (pinned[i]) {
+        used += tokenCounter.applyAsInt(history.get(i));
+      }
+    }
+
+    int start = history.size();
+    boolean first = true;
+    while (start > 0) {
+      int index = start - 1;
+      if (!pinned[index]) {
+        int tokens = tokenCounter.applyAsInt(history.get(index));
+        if (!first && used + tokens > maxTokens) {
+          break;
+        }
+        used += tokens;
+        first = false;
+      }
+      start = index;
+    }
+    return start;
+  }
+}
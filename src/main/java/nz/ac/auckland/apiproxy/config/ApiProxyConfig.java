@@ -4,7 +4,10 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import java.io.File;
+import java.util.List;
 import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.apiproxy.metrics.ProxyMetrics;
+import nz.ac.auckland.apiproxy.service.EndPoints;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class ApiProxyConfig {
@@ -12,6 +15,29 @@ public class ApiProxyConfig {
   private String email = null;
   private String apiKey = null;
 
+  // Optional HTTP connection pool settings
+  private int maxConnections = 20;
+  private int maxConnectionsPerRoute = 10;
+  private int keepAliveSeconds = 60;
+  private int idleEvictionSeconds = 30;
+  private int connectTimeoutMillis = 5000;
+  private int socketTimeoutMillis = 60000;
+
+  // Optional chat completion cache settings
+  private int cacheMaxEntries = 256;
+  private String cacheDirectory = null;
+  private int cacheMaxDiskEntries = 4096;
+  private int cacheMaxAgeDays = 30;
+
+  // Optional hosts to call instead of the cloud proxy, e.g. other regions or a local simulator
+  private List<String> proxyBaseUrls = null;
+
+  // Optional metrics settings
+  private int metricsDumpSeconds = 0;
+
+  // Optional number of older messages summarized at a time, 0 sends a token budget of history
+  private int historySummaryBatch = 0;
+
   private static ApiProxyConfig instance;
 
   private ApiProxyConfig() {}
@@ -29,12 +55,76 @@ public class ApiProxyConfig {
     return email;
   }
 
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  public int getMaxConnectionsPerRoute() {
+    return maxConnectionsPerRoute;
+  }
+
+  public int getKeepAliveSeconds() {
+    return keepAliveSeconds;
+  }
+
+  public int getIdleEvictionSeconds() {
+    return idleEvictionSeconds;
+  }
+
+  public int getConnectTimeoutMillis() {
+    return connectTimeoutMillis;
+  }
+
+  public int getSocketTimeoutMillis() {
+    return socketTimeoutMillis;
+  }
+
+  public int getCacheMaxEntries() {
+    return cacheMaxEntries;
+  }
+
+  public String getCacheDirectory() {
+    return cacheDirectory;
+  }
+
+  public int getCacheMaxDiskEntries() {
+    return cacheMaxDiskEntries;
+  }
+
+  public int getCacheMaxAgeDays() {
+    return cacheMaxAgeDays;
+  }
+
+  public List<String> getProxyBaseUrls() {
+    return proxyBaseUrls;
+  }
+
+  public int getMetricsDumpSeconds() {
+    return metricsDumpSeconds;
+  }
+
+  public int getHistorySummaryBatch() {
+    return historySummaryBatch;
+  }
+
+  /**
+   * Applies the settings that hold for the whole process: the proxy hosts and the metrics dump.
+   * The config in apiproxy.config is applied once, when it is first read.
+   */
+  public void apply() {
+    ProxyMetrics.startDump(metricsDumpSeconds);
+    if (proxyBaseUrls != null) {
+      EndPoints.setBaseUrls(proxyBaseUrls);
+    }
+  }
+
   public static synchronized ApiProxyConfig readConfig() throws ApiProxyException {
     if (instance == null) {
       File file = new File("apiproxy.config");
       try {
         ObjectMapper objectMapper = new ObjectMapper(new YAMLFactory());
         instance = objectMapper.readValue(file, ApiProxyConfig.class);
+        instance.apply();
       } catch (Exception e) {
         e.printStackTrace();
         String message =
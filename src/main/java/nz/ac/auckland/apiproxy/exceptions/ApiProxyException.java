@@ -4,11 +4,27 @@ public class ApiProxyException extends Exception {
 
   private static final long serialVersionUID = 1L;
 
+  private final Integer code;
+
   public ApiProxyException(String message) {
-    super(message);
+    this(message, (Integer) null);
   }
 
   public ApiProxyException(String message, Throwable cause) {
     super(message, cause);
+    this.code = null;
+  }
+
+  public ApiProxyException(String message, Integer code) {
+    super(message);
+    this.code = code;
+  }
+
+  /**
+   * Returns the error code reported by the proxy, or null if the error did not come from the proxy
+   * (e.g. the connection failed).
+   */
+  public Integer getCode() {
+    return code;
   }
 }
@@ -0,0 +1,77 @@
+package nz.ac.auckland.apiproxy.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts failed proxy calls by code. Codes are kept in a fixed array so that recording does not
+ * allocate; codes outside the HTTP range are counted together as "other".
+ */
+public class ErrorCounts implements ErrorCountsMXBean {
+
+  private static final int MAX_CODE = 600;
+  private static final int CONNECTION = MAX_CODE;
+  private static final int OTHER = MAX_CODE + 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(MAX_CODE + 2);
+  private final AtomicLong total = new AtomicLong();
+
+  /** Records a failure with the given proxy code, or a connection failure if the code is null. */
+  public void record(Integer code) {
+    int index;
+    if (code == null) {
+      index = CONNECTION;
+    } else if (code < 0 || code >= MAX_CODE) {
+      index = OTHER;
+    } else {
+      index = code;
+    }
+    counts.incrementAndGet(index);
+    total.incrementAndGet();
+  }
+
+  public long getCount(int code) {
+    return code < 0 || code >= MAX_CODE ? counts.get(OTHER) : counts.get(code);
+  }
+
+  public long getConnectionFailures() {
+    return counts.get(CONNECTION);
+  }
+
+  public void reset() {
+    for (int i = 0; i < counts.length(); i++) {
+      counts.set(i, 0);
+    }
+    total.set(0);
+  }
+
+  @Override
+  public long getTotal() {
+    return total.get();
+  }
+
+  @Override
+  public Map<String, Long> getCountsByCode() {
+    Map<String, Long> result = new TreeMap<>();
+    for (int i = 0; i < MAX_CODE; i++) {
+      long count = counts.get(i);
+      if (count > 0) {
+        result.put(String.valueOf(i), count);
+      }
+    }
+    if (counts.get(CONNECTION) > 0) {
+      result.put("connection", counts.get(CONNECTION));
+    }
+    if (counts.get(OTHER) > 0) {
+      result.put("other", counts.get(OTHER));
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "errors: total=" + getTotal() + " " + getCountsByCode();
+  }
+}
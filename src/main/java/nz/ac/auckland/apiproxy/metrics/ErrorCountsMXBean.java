@@ -0,0 +1,12 @@
+package nz.ac.auckland.apiproxy.metrics;
+
+import java.util.Map;
+
+/** Management view of failed proxy calls, counted by the code the proxy returned. */
+public interface ErrorCountsMXBean {
+
+  long getTotal();
+
+  /** Returns the count for each code seen, with connection failures under "connection". */
+  Map<String, Long> getCountsByCode();
+}
@@ -0,0 +1,151 @@
+package nz.ac.auckland.apiproxy.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative long values. Values are counted in log-linear buckets
+ * (eight per power of two, so percentiles are within about 12% of the true value), which keeps
+ * recording to a few atomic increments with no allocation.
+ */
+public class Histogram implements HistogramMXBean {
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // Values below this are counted exactly, one bucket each
+  private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+  private static final int BUCKET_COUNT =
+      LINEAR_LIMIT + (63 - (SUB_BUCKET_BITS + 1)) * SUB_BUCKETS;
+
+  private final String name;
+  private final String unit;
+  private final double scale;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Creates a histogram whose values are reported divided by the scale, e.g. values recorded in
+   * nanoseconds with a scale of 1e6 are reported in milliseconds.
+   */
+  public Histogram(String name, String unit, double scale) {
+    this.name = name;
+    this.unit = unit;
+    this.scale = scale;
+  }
+
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    buckets.incrementAndGet(bucketOf(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    long current = max.get();
+    while (value > current && !max.compareAndSet(current, value)) {
+      current = max.get();
+    }
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      buckets.set(i, 0);
+    }
+    count.set(0);
+    sum.set(0);
+    max.set(0);
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public String getUnit() {
+    return unit;
+  }
+
+  @Override
+  public long getCount() {
+    return count.get();
+  }
+
+  @Override
+  public double getMean() {
+    long n = count.get();
+    return n == 0 ? 0 : sum.get() / scale / n;
+  }
+
+  @Override
+  public double getMax() {
+    return max.get() / scale;
+  }
+
+  @Override
+  public double getP50() {
+    return getPercentile(50);
+  }
+
+  @Override
+  public double getP95() {
+    return getPercentile(95);
+  }
+
+  @Override
+  public double getP99() {
+    return getPercentile(99);
+  }
+
+  /** Returns the value below which the given percentage of recorded values fall. */
+  public double getPercentile(double percent) {
+    long total = 0;
+    long[] counts = new long[BUCKET_COUNT];
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts[i] = buckets.get(i);
+      total += counts[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(total * percent / 100));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        // Never report more than was actually recorded
+        return Math.min(upperBoundOf(i), max.get()) / scale;
+      }
+    }
+    return max.get() / scale;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%s: count=%d p50=%.2f p95=%.2f p99=%.2f max=%.2f %s",
+        name, getCount(), getP50(), getP95(), getP99(), getMax(), unit);
+  }
+
+  static int bucketOf(long value) {
+    if (value < LINEAR_LIMIT) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+  }
+
+  static long upperBoundOf(int bucket) {
+    if (bucket < LINEAR_LIMIT) {
+      return bucket;
+    }
+    int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+    long subBucket = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+    long lower = (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+  }
+}
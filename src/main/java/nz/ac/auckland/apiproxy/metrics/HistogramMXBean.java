@@ -0,0 +1,21 @@
+package nz.ac.auckland.apiproxy.metrics;
+
+/** Management view of a {@link Histogram}, with values in the histogram's reporting unit. */
+public interface HistogramMXBean {
+
+  String getName();
+
+  String getUnit();
+
+  long getCount();
+
+  double getMean();
+
+  double getMax();
+
+  double getP50();
+
+  double getP95();
+
+  double getP99();
+}
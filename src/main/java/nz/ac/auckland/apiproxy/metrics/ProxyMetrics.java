@@ -0,0 +1,136 @@
+package nz.ac.auckland.apiproxy.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registry of the client's metrics. Every histogram and the error counts are registered as MBeans
+ * under the {@code nz.ac.auckland.apiproxy} domain, so they can be watched live with JConsole or
+ * VisualVM, and can also be printed periodically with {@link #startDump(long)}.
+ *
+ * <p>Callers look a histogram up once and keep the reference; recording is then allocation free.
+ */
+public class ProxyMetrics {
+
+  private static final String DOMAIN = "nz.ac.auckland.apiproxy";
+  private static final double NANOS_PER_MILLI = 1e6;
+
+  private static final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+  /** Time spent writing request bodies to the connection. */
+  public static final Histogram SERIALIZATION = latency("serialization");
+
+  /** Time from sending a request until the response headers arrive. */
+  public static final Histogram NETWORK = latency("network");
+
+  /** Time spent reading and parsing response bodies, including streamed replies. */
+  public static final Histogram PARSE = latency("parse");
+
+  /** Time calls wait for a slot from the concurrency limiter. */
+  public static final Histogram QUEUE_WAIT = latency("queueWait");
+
+  /** Time of whole proxy calls, including retries and backoff. */
+  public static final Histogram CALL = latency("call");
+
+  /** Completion tokens generated per second of call time. */
+  public static final Histogram TOKENS_PER_SECOND = histogram("tokensPerSecond", "tokens/s", 1);
+
+  /** Failed proxy call attempts by code. */
+  public static final ErrorCounts ERRORS = new ErrorCounts();
+
+  private static ScheduledExecutorService dumpExecutor;
+  private static ScheduledFuture<?> dumpTask;
+
+  static {
+    register("type=Errors", ERRORS);
+  }
+
+  /** Returns the latency histogram with the given name, creating it if needed. */
+  public static Histogram latency(String name) {
+    return histogram(name, "ms", NANOS_PER_MILLI);
+  }
+
+  /** Returns the histogram with the given name, creating it with the given unit if needed. */
+  public static Histogram histogram(String name, String unit, double scale) {
+    return histograms.computeIfAbsent(
+        name,
+        key -> {
+          Histogram histogram = new Histogram(key, unit, scale);
+          register("type=Histogram,name=" + key, histogram);
+          return histogram;
+        });
+  }
+
+  public static Map<String, Histogram> getHistograms() {
+    return Collections.unmodifiableMap(histograms);
+  }
+
+  /** Returns a multi-line summary of every metric. */
+  public static String snapshot() {
+    StringBuilder snapshot = new StringBuilder("apiproxy metrics");
+    for (Histogram histogram : histograms.values()) {
+      if (histogram.getCount() > 0) {
+        snapshot.append("\n  ").append(histogram);
+      }
+    }
+    snapshot.append("\n  ").append(ERRORS);
+    return snapshot.toString();
+  }
+
+  /** Prints a snapshot every given number of seconds, replacing any earlier schedule. */
+  public static synchronized void startDump(long periodSeconds) {
+    stopDump();
+    if (periodSeconds <= 0) {
+      return;
+    }
+    if (dumpExecutor == null) {
+      dumpExecutor =
+          Executors.newSingleThreadScheduledExecutor(
+              task -> {
+                Thread thread = new Thread(task, "apiproxy-metrics");
+                thread.setDaemon(true);
+                return thread;
+              });
+    }
+    dumpTask =
+        dumpExecutor.scheduleAtFixedRate(
+            () -> System.out.println(snapshot()), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+  }
+
+  public static synchronized void stopDump() {
+    if (dumpTask != null) {
+      dumpTask.cancel(false);
+      dumpTask = null;
+    }
+  }
+
+  public static void reset() {
+    for (Histogram histogram : histograms.values()) {
+      histogram.reset();
+    }
+    ERRORS.reset();
+  }
+
+  /** Registers an MBean under the {@code nz.ac.auckland.apiproxy} domain with the given keys. */
+  public static void register(String properties, Object bean) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+      if (!server.isRegistered(name)) {
+        server.registerMBean(bean, name);
+      }
+    } catch (JMException e) {
+      // Metrics are still recorded and dumped without JMX
+      e.printStackTrace();
+    }
+  }
+}
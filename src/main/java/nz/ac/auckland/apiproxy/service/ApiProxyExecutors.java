@@ -0,0 +1,63 @@
+package nz.ac.auckland.apiproxy.service;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors used by the asynchronous proxy requests. The default executor starts a virtual thread
+ * per task when the running JVM supports them (Java 21+), so a request blocked on the network does
+ * not hold a platform thread. On older JVMs it falls back to a cached pool of daemon threads.
+ */
+public class ApiProxyExecutors {
+
+  private static Executor defaultExecutor;
+  private static boolean virtualThreads = false;
+
+  public static synchronized Executor getDefaultExecutor() {
+    if (defaultExecutor == null) {
+      defaultExecutor = createDefaultExecutor();
+    }
+    return defaultExecutor;
+  }
+
+  public static synchronized void setDefaultExecutor(Executor executor) {
+    if (executor == null) {
+      throw new IllegalArgumentException("The executor must not be null.");
+    }
+    defaultExecutor = executor;
+    virtualThreads = false;
+  }
+
+  public static synchronized boolean isUsingVirtualThreads() {
+    getDefaultExecutor();
+    return virtualThreads;
+  }
+
+  private static Executor createDefaultExecutor() {
+    ExecutorService virtualThreadExecutor = createVirtualThreadExecutor();
+    if (virtualThreadExecutor != null) {
+      virtualThreads = true;
+      return virtualThreadExecutor;
+    }
+
+    AtomicInteger count = new AtomicInteger();
+    return Executors.newCachedThreadPool(
+        runnable -> {
+          Thread thread = new Thread(runnable, "apiproxy-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  private static ExecutorService createVirtualThreadExecutor() {
+    try {
+      // Looked up reflectively so the project still compiles for Java 17
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+}
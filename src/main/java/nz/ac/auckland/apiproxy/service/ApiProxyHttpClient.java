@@ -0,0 +1,170 @@
+package nz.ac.auckland.apiproxy.service;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
+import nz.ac.auckland.apiproxy.metrics.ProxyMetrics;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+/**
+ * Long-lived HTTP client shared by all proxy requests. Connections to the proxy are pooled and
+ * kept alive between calls, so only the first request to a host pays for the TCP and TLS
+ * handshake.
+ */
+public class ApiProxyHttpClient {
+
+  /** The settings of a config the client is built from. */
+  private record Settings(
+      int maxConnections,
+      int maxConnectionsPerRoute,
+      int keepAliveSeconds,
+      int idleEvictionSeconds,
+      int connectTimeoutMillis,
+      int socketTimeoutMillis) {
+
+    static Settings of(ApiProxyConfig config) {
+      return new Settings(
+          config.getMaxConnections(),
+          config.getMaxConnectionsPerRoute(),
+          config.getKeepAliveSeconds(),
+          config.getIdleEvictionSeconds(),
+          config.getConnectTimeoutMillis(),
+          config.getSocketTimeoutMillis());
+    }
+  }
+
+  private static ApiProxyHttpClient instance;
+
+  private final Settings settings;
+  private final PoolingHttpClientConnectionManager connectionManager;
+  private final CloseableHttpClient client;
+  private final Thread shutdownHook;
+
+  // Read by getInstance under the class lock, written by close under the instance lock
+  private volatile boolean closed = false;
+
+  private ApiProxyHttpClient(ApiProxyConfig config) {
+    settings = Settings.of(config);
+    connectionManager = new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(config.getMaxConnections());
+    connectionManager.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+    // Check connections that sat idle for a while before reusing them
+    connectionManager.setValidateAfterInactivity(2000);
+
+    RequestConfig requestConfig =
+        RequestConfig.custom()
+            .setConnectTimeout(config.getConnectTimeoutMillis())
+            .setConnectionRequestTimeout(config.getConnectTimeoutMillis())
+            .setSocketTimeout(config.getSocketTimeoutMillis())
+            .build();
+
+    long keepAliveMillis = TimeUnit.SECONDS.toMillis(config.getKeepAliveSeconds());
+    ConnectionKeepAliveStrategy keepAliveStrategy =
+        (response, context) -> {
+          // Honour the server's Keep-Alive header, but never keep a connection longer than ours
+          long duration =
+              DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+          return duration > 0 ? Math.min(duration, keepAliveMillis) : keepAliveMillis;
+        };
+
+    client =
+        HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .setKeepAliveStrategy(keepAliveStrategy)
+            .evictExpiredConnections()
+            .evictIdleConnections(config.getIdleEvictionSeconds(), TimeUnit.SECONDS)
+            .build();
+
+    shutdownHook = new Thread(this::close, "apiproxy-http-shutdown");
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+  }
+
+  /**
+   * Returns the shared client, building it from the given config on first use. Every later config
+   * must have the same connection settings, as the client cannot be rebuilt while calls use it.
+   *
+   * @throws IllegalArgumentException if the client was built with other connection settings
+   */
+  public static synchronized ApiProxyHttpClient getInstance(ApiProxyConfig config) {
+    if (instance == null || instance.closed) {
+      instance = new ApiProxyHttpClient(config);
+    } else if (!instance.settings.equals(Settings.of(config))) {
+      throw new IllegalArgumentException(
+          "The HTTP client was built with "
+              + instance.settings
+              + ", shut it down before using "
+              + Settings.of(config));
+    }
+    return instance;
+  }
+
+  public static synchronized void shutdown() {
+    if (instance != null) {
+      Runtime.getRuntime().removeShutdownHook(instance.shutdownHook);
+      instance.close();
+      instance = null;
+    }
+  }
+
+  public <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> responseHandler)
+      throws IOException {
+    long start = System.nanoTime();
+    return client.execute(
+        request,
+        response -> {
+          long received = System.nanoTime();
+          ProxyCallExecutor.recordResponseStart(received);
+          ProxyMetrics.NETWORK.record(received - start);
+          EndpointRouter.recordResponseTime(request.getURI(), received - start);
+          try {
+            return responseHandler.handleResponse(response);
+          } finally {
+            ProxyMetrics.PARSE.record(System.nanoTime() - received);
+          }
+        });
+  }
+
+  /** Executes the request, aborting it if the handle is cancelled or expires meanwhile. */
+  public <T> T execute(
+      HttpUriRequest request, ResponseHandler<? extends T> responseHandler, CallHandle handle)
+      throws IOException {
+    if (handle == null) {
+      return execute(request, responseHandler);
+    }
+    handle.attach(request);
+    try {
+      return execute(request, responseHandler);
+    } finally {
+      handle.detach(request);
+    }
+  }
+
+  public PoolStats getPoolStats() {
+    return connectionManager.getTotalStats();
+  }
+
+  public int getRouteCount() {
+    return connectionManager.getRoutes().size();
+  }
+
+  private synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      client.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+}
@@ -0,0 +1,23 @@
+package nz.ac.auckland.apiproxy.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * Shared Jackson configuration for proxy requests and responses. Mappers are thread-safe once
+ * configured, and building one per call throws away all of its cached (de)serializers.
+ */
+public class ApiProxyJson {
+
+  private static final ObjectMapper MAPPER =
+      new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+  public static ObjectMapper getMapper() {
+    return MAPPER;
+  }
+
+  public static ObjectReader readerFor(Class<?> type) {
+    return MAPPER.readerFor(type);
+  }
+}
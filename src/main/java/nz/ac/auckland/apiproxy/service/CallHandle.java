@@ -0,0 +1,196 @@
+package nz.ac.auckland.apiproxy.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Lets the caller give up on a proxy call. Cancelling the handle, or reaching its deadline, aborts
+ * the HTTP request in flight, stops any further retries and fails the call with an {@link
+ * nz.ac.auckland.apiproxy.exceptions.ApiProxyException}. A handle is meant for one call.
+ */
+public class CallHandle {
+
+  private static final ScheduledExecutorService deadlines = createScheduler();
+
+  private static ScheduledExecutorService createScheduler() {
+    ScheduledThreadPoolExecutor scheduler =
+        (ScheduledThreadPoolExecutor)
+            Executors.newScheduledThreadPool(
+                1,
+                task -> {
+                  Thread thread = new Thread(task, "apiproxy-deadlines");
+                  thread.setDaemon(true);
+                  return thread;
+                });
+    // Most calls finish well before their deadline, don't keep their timers around
+    scheduler.setRemoveOnCancelPolicy(true);
+    return scheduler;
+  }
+
+  private long deadlineNanos = Long.MAX_VALUE;
+  private ScheduledFuture<?> deadlineTimer = null;
+
+  private boolean cancelled = false;
+  private boolean expired = false;
+  private HttpUriRequest current = null;
+  private final List<CallHandle> children = new ArrayList<>();
+  private final List<Runnable> doneListeners = new ArrayList<>();
+
+  /** Gives the call the given time from now to finish, including retries. */
+  public synchronized CallHandle setTimeoutMillis(long timeoutMillis) {
+    if (deadlineTimer != null) {
+      deadlineTimer.cancel(false);
+    }
+    deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    deadlineTimer = deadlines.schedule(this::expire, timeoutMillis, TimeUnit.MILLISECONDS);
+    return this;
+  }
+
+  public void cancel() {
+    HttpUriRequest request;
+    List<CallHandle> forks;
+    List<Runnable> listeners;
+    synchronized (this) {
+      if (isDone()) {
+        return;
+      }
+      cancelled = true;
+      request = current;
+      forks = new ArrayList<>(children);
+      listeners = takeDoneListeners();
+      if (deadlineTimer != null) {
+        deadlineTimer.cancel(false);
+      }
+    }
+    if (request != null) {
+      request.abort();
+    }
+    for (CallHandle fork : forks) {
+      fork.cancel();
+    }
+    listeners.forEach(Runnable::run);
+  }
+
+  /**
+   * Returns a new handle for a call made on behalf of this one. It has the same deadline and is
+   * cancelled along with this handle, but can also be cancelled on its own.
+   */
+  public CallHandle fork() {
+    CallHandle fork = new CallHandle();
+    synchronized (this) {
+      if (deadlineNanos != Long.MAX_VALUE) {
+        fork.setTimeoutMillis(getRemainingMillis());
+      }
+    }
+    link(fork);
+    return fork;
+  }
+
+  /**
+   * Cancels the given handle along with this one, e.g. for a call started earlier whose result
+   * this call takes over. The other handle keeps its own deadline.
+   */
+  public void link(CallHandle other) {
+    synchronized (this) {
+      if (!cancelled) {
+        children.add(other);
+        return;
+      }
+    }
+    other.cancel();
+  }
+
+  public synchronized boolean isCancelled() {
+    return cancelled;
+  }
+
+  public synchronized boolean isExpired() {
+    if (expired) {
+      return true;
+    }
+    return deadlineNanos != Long.MAX_VALUE && System.nanoTime() - deadlineNanos >= 0;
+  }
+
+  /** Returns whether the call should stop, because it was cancelled or ran out of time. */
+  public synchronized boolean isDone() {
+    return cancelled || isExpired();
+  }
+
+  /** Returns the time left before the deadline, or {@link Long#MAX_VALUE} if there is none. */
+  public synchronized long getRemainingMillis() {
+    if (deadlineNanos == Long.MAX_VALUE) {
+      return Long.MAX_VALUE;
+    }
+    return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+  }
+
+  /** Returns a description of why the call stopped, for error messages. */
+  public synchronized String getReason() {
+    return cancelled ? "the request was cancelled" : "the request ran out of time";
+  }
+
+  /** Tracks the request in flight, aborting it straight away if the call is already done. */
+  void attach(HttpUriRequest request) {
+    synchronized (this) {
+      if (!isDone()) {
+        current = request;
+        return;
+      }
+    }
+    request.abort();
+  }
+
+  /**
+   * Runs the listener once the call is cancelled or reaches its deadline, straight away if it
+   * already has. Returns an action that removes the listener again.
+   */
+  Runnable onDone(Runnable listener) {
+    synchronized (this) {
+      if (!isDone()) {
+        doneListeners.add(listener);
+        return () -> removeDoneListener(listener);
+      }
+    }
+    listener.run();
+    return () -> {};
+  }
+
+  private synchronized void removeDoneListener(Runnable listener) {
+    doneListeners.remove(listener);
+  }
+
+  private List<Runnable> takeDoneListeners() {
+    List<Runnable> listeners = new ArrayList<>(doneListeners);
+    doneListeners.clear();
+    return listeners;
+  }
+
+  synchronized void detach(HttpUriRequest request) {
+    if (current == request) {
+      current = null;
+    }
+  }
+
+  private void expire() {
+    HttpUriRequest request;
+    List<Runnable> listeners;
+    synchronized (this) {
+      if (cancelled) {
+        return;
+      }
+      expired = true;
+      request = current;
+      listeners = takeDoneListeners();
+    }
+    if (request != null) {
+      request.abort();
+    }
+    listeners.forEach(Runnable::run);
+  }
+}
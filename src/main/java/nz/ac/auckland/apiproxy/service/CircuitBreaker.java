@@ -0,0 +1,125 @@
+package nz.ac.auckland.apiproxy.service;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stops calling a proxy host after repeated transient failures. While open, calls fail immediately
+ * instead of queueing behind a degraded proxy. After the open period a single trial call is let
+ * through; its outcome closes the breaker again or re-opens it.
+ */
+public class CircuitBreaker {
+
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private static final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+  private static int defaultFailureThreshold = 5;
+  private static long defaultOpenMillis = 30000;
+
+  /** Returns the breaker of the host with the given base URL. */
+  public static CircuitBreaker forHost(String baseUrl) {
+    return breakers.computeIfAbsent(
+        baseUrl, key -> new CircuitBreaker(defaultFailureThreshold, defaultOpenMillis));
+  }
+
+  public static Map<String, CircuitBreaker> getBreakers() {
+    return Collections.unmodifiableMap(breakers);
+  }
+
+  /** Sets the thresholds used for breakers created from now on. */
+  public static void setDefaults(int failureThreshold, long openMillis) {
+    defaultFailureThreshold = failureThreshold;
+    defaultOpenMillis = openMillis;
+  }
+
+  private final int failureThreshold;
+  private final long openMillis;
+
+  private State state = State.CLOSED;
+  private int consecutiveFailures = 0;
+  private long openedAt = 0;
+  private boolean trialInFlight = false;
+
+  private final AtomicLong successes = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong rejections = new AtomicLong();
+
+  public CircuitBreaker(int failureThreshold, long openMillis) {
+    if (failureThreshold < 1) {
+      throw new IllegalArgumentException(
+          "The failure threshold must be at least 1, but was given " + failureThreshold);
+    }
+    this.failureThreshold = failureThreshold;
+    this.openMillis = openMillis;
+  }
+
+  /** Returns whether a call may go ahead. Every permitted call must be followed by a record. */
+  public synchronized boolean tryAcquire() {
+    if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+      state = State.HALF_OPEN;
+      trialInFlight = false;
+    }
+    if (state == State.CLOSED || (state == State.HALF_OPEN && !trialInFlight)) {
+      if (state == State.HALF_OPEN) {
+        trialInFlight = true;
+      }
+      return true;
+    }
+    rejections.incrementAndGet();
+    return false;
+  }
+
+  public synchronized void recordSuccess() {
+    successes.incrementAndGet();
+    consecutiveFailures = 0;
+    trialInFlight = false;
+    state = State.CLOSED;
+  }
+
+  public synchronized void recordFailure() {
+    failures.incrementAndGet();
+    consecutiveFailures++;
+    trialInFlight = false;
+    if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+      state = State.OPEN;
+      openedAt = System.currentTimeMillis();
+    }
+  }
+
+  /** Records a call that finished without saying anything about the endpoint's health. */
+  public synchronized void recordIgnored() {
+    trialInFlight = false;
+  }
+
+  /** Returns whether calls are currently being turned away, without starting a trial call. */
+  public synchronized boolean isRejecting(long nowMillis) {
+    return state == State.OPEN && nowMillis - openedAt < openMillis;
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  public synchronized int getConsecutiveFailures() {
+    return consecutiveFailures;
+  }
+
+  public long getSuccessCount() {
+    return successes.get();
+  }
+
+  public long getFailureCount() {
+    return failures.get();
+  }
+
+  public long getRejectionCount() {
+    return rejections.get();
+  }
+}
@@ -0,0 +1,331 @@
+package nz.ac.auckland.apiproxy.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounds the number of calls in flight to an endpoint, adapting the bound with AIMD (additive
+ * increase, multiplicative decrease). The limit grows by about one call per round of successful
+ * calls, and is cut when a call is throttled, fails transiently or takes much longer than the
+ * usual latency. Calls beyond the limit wait in line for a bounded time instead of piling onto the
+ * proxy.
+ *
+ * <p>Waiting calls are let through by {@link RequestPriority}, first come first served within a
+ * class. Each class may only take up a share of the limit, so speculative work never fills every
+ * slot, and a call moves up a class for every {@code agingMillis} it waits, so a steady stream of
+ * urgent calls cannot starve the rest.
+ */
+public class ConcurrencyLimiter {
+
+  private static final Map<String, ConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+
+  private static int defaultInitialLimit = 4;
+  private static int defaultMaxLimit = 20;
+  private static long defaultQueueTimeoutMillis = 10000;
+
+  private static final Map<RequestPriority, Double> classShares =
+      new EnumMap<>(
+          Map.of(
+              RequestPriority.FEEDBACK, 1.0,
+              RequestPriority.INTERACTIVE, 1.0,
+              RequestPriority.SPECULATIVE, 0.5));
+  private static volatile long agingMillis = 2000;
+
+  // A call slower than this many times the usual latency is treated as a sign of overload
+  private static final double LATENCY_TOLERANCE = 2.0;
+  private static final double BACKOFF_RATIO = 0.75;
+  private static final double LATENCY_SMOOTHING = 0.05;
+
+  public static ConcurrencyLimiter forEndpoint(String endpoint) {
+    return limiters.computeIfAbsent(
+        endpoint,
+        key ->
+            new ConcurrencyLimiter(
+                defaultInitialLimit, defaultMaxLimit, defaultQueueTimeoutMillis));
+  }
+
+  public static Map<String, ConcurrencyLimiter> getLimiters() {
+    return Collections.unmodifiableMap(limiters);
+  }
+
+  /** Sets the limits used for limiters created from now on. */
+  public static void setDefaults(int initialLimit, int maxLimit, long queueTimeoutMillis) {
+    defaultInitialLimit = initialLimit;
+    defaultMaxLimit = maxLimit;
+    defaultQueueTimeoutMillis = queueTimeoutMillis;
+  }
+
+  /** Sets the share of the limit that calls of the given priority may use at most. */
+  public static synchronized void setClassShare(RequestPriority priority, double share) {
+    if (share <= 0 || share > 1) {
+      throw new IllegalArgumentException("The share must be in (0, 1], but was given " + share);
+    }
+    classShares.put(priority, share);
+  }
+
+  /** Sets how long a call waits before it is treated as one class more urgent. */
+  public static void setAgingMillis(long agingMillis) {
+    ConcurrencyLimiter.agingMillis = agingMillis;
+  }
+
+  private static synchronized double classShare(RequestPriority priority) {
+    return classShares.get(priority);
+  }
+
+  private final int maxLimit;
+  private final long queueTimeoutMillis;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition available = lock.newCondition();
+
+  private double limit;
+  private int inFlight = 0;
+  private final int[] inFlightByClass = new int[RequestPriority.values().length];
+  private final List<Waiter> waiters = new ArrayList<>();
+  private long nextTicket = 0;
+  private double usualLatencyNanos = 0;
+  private long lastDecreaseNanos = 0;
+
+  private final AtomicLong timeouts = new AtomicLong();
+  private final AtomicLong decreases = new AtomicLong();
+
+  public ConcurrencyLimiter(int initialLimit, int maxLimit, long queueTimeoutMillis) {
+    if (initialLimit < 1 || maxLimit < initialLimit) {
+      throw new IllegalArgumentException(
+          "The limits must satisfy 1 <= initial <= max, but were given "
+              + initialLimit
+              + " and "
+              + maxLimit);
+    }
+    this.limit = initialLimit;
+    this.maxLimit = maxLimit;
+    this.queueTimeoutMillis = queueTimeoutMillis;
+  }
+
+  /**
+   * Waits until a call of the given priority may go ahead, for at most the queue timeout. Returns
+   * false if the wait timed out. Every permitted call must be followed by exactly one record with
+   * the same priority.
+   */
+  public boolean acquire(RequestPriority priority) throws InterruptedException {
+    return acquire(priority, queueTimeoutMillis);
+  }
+
+  /** Waits as {@link #acquire(RequestPriority)} does, but for no longer than the given time. */
+  public boolean acquire(RequestPriority priority, long maxWaitMillis)
+      throws InterruptedException {
+    return acquire(priority, maxWaitMillis, null);
+  }
+
+  /**
+   * Waits as {@link #acquire(RequestPriority)} does, but gives up as soon as the handle is
+   * cancelled or reaches its deadline, so a call nobody wants any more never takes a slot.
+   */
+  public boolean acquire(RequestPriority priority, CallHandle handle)
+      throws InterruptedException {
+    Runnable stopListening = handle.onDone(this::wakeWaiters);
+    try {
+      return acquire(priority, handle.getRemainingMillis(), handle);
+    } finally {
+      stopListening.run();
+    }
+  }
+
+  private boolean acquire(RequestPriority priority, long maxWaitMillis, CallHandle handle)
+      throws InterruptedException {
+    long remaining = TimeUnit.MILLISECONDS.toNanos(Math.min(maxWaitMillis, queueTimeoutMillis));
+    lock.lock();
+    try {
+      Waiter waiter = new Waiter(priority, System.nanoTime(), nextTicket++);
+      waiters.add(waiter);
+      try {
+        while (!canStart(waiter)) {
+          if (handle != null && handle.isDone()) {
+            return false;
+          }
+          if (remaining <= 0) {
+            timeouts.incrementAndGet();
+            return false;
+          }
+          remaining = available.awaitNanos(remaining);
+        }
+      } finally {
+        waiters.remove(waiter);
+        // Whether this call goes ahead or gives up, the next one in line may now be able to
+        available.signalAll();
+      }
+      inFlight++;
+      inFlightByClass[priority.ordinal()]++;
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Records a successful call that took the given time to answer. For a streamed reply this should
+   * be the time until the reply started, as a long but steady stream says nothing about load.
+   */
+  public void recordSuccess(RequestPriority priority, long latencyNanos) {
+    lock.lock();
+    try {
+      boolean slow =
+          usualLatencyNanos > 0 && latencyNanos > LATENCY_TOLERANCE * usualLatencyNanos;
+      if (slow) {
+        decrease();
+      } else if (inFlight >= limit / 2) {
+        // Only grow while the limit is actually in use
+        limit = Math.min(maxLimit, limit + 1 / limit);
+      }
+      usualLatencyNanos =
+          usualLatencyNanos == 0
+              ? latencyNanos
+              : usualLatencyNanos + LATENCY_SMOOTHING * (latencyNanos - usualLatencyNanos);
+      release(priority);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Records a call that was throttled or failed in a way that suggests overload. */
+  public void recordDropped(RequestPriority priority) {
+    lock.lock();
+    try {
+      decrease();
+      release(priority);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Records a call that finished without saying anything about the endpoint's load. */
+  public void recordIgnored(RequestPriority priority) {
+    lock.lock();
+    try {
+      release(priority);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getLimit() {
+    lock.lock();
+    try {
+      return (int) limit;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getInFlight() {
+    lock.lock();
+    try {
+      return inFlight;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getInFlight(RequestPriority priority) {
+    lock.lock();
+    try {
+      return inFlightByClass[priority.ordinal()];
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getWaiting() {
+    lock.lock();
+    try {
+      return waiters.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public long getTimeoutCount() {
+    return timeouts.get();
+  }
+
+  public long getDecreaseCount() {
+    return decreases.get();
+  }
+
+  private void wakeWaiters() {
+    lock.lock();
+    try {
+      available.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void decrease() {
+    // Calls that were already in flight report the same overload, only back off once per round
+    long now = System.nanoTime();
+    if (lastDecreaseNanos != 0 && now - lastDecreaseNanos < usualLatencyNanos) {
+      return;
+    }
+    lastDecreaseNanos = now;
+    limit = Math.max(1, limit * BACKOFF_RATIO);
+    decreases.incrementAndGet();
+  }
+
+  private void release(RequestPriority priority) {
+    inFlight--;
+    inFlightByClass[priority.ordinal()]--;
+    available.signalAll();
+  }
+
+  private boolean canStart(Waiter waiter) {
+    if (inFlight >= (int) limit || !hasRoom(waiter.priority)) {
+      return false;
+    }
+    // Let a waiting call that is ahead in line go first, unless its class is at its cap
+    long now = System.nanoTime();
+    int rank = waiter.rank(now);
+    for (Waiter other : waiters) {
+      if (other != waiter && hasRoom(other.priority)) {
+        int otherRank = other.rank(now);
+        if (otherRank < rank || (otherRank == rank && other.ticket < waiter.ticket)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private boolean hasRoom(RequestPriority priority) {
+    int cap = Math.max(1, (int) Math.ceil((int) limit * classShare(priority)));
+    return inFlightByClass[priority.ordinal()] < cap;
+  }
+
+  /** A call waiting in line. */
+  private static class Waiter {
+
+    private final RequestPriority priority;
+    private final long enqueuedNanos;
+    private final long ticket;
+
+    private Waiter(RequestPriority priority, long enqueuedNanos, long ticket) {
+      this.priority = priority;
+      this.enqueuedNanos = enqueuedNanos;
+      this.ticket = ticket;
+    }
+
+    /** Returns the class this call is treated as after aging, lower goes first. */
+    private int rank(long now) {
+      long aging = TimeUnit.MILLISECONDS.toNanos(Math.max(1, agingMillis));
+      return (int) Math.max(0, priority.ordinal() - (now - enqueuedNanos) / aging);
+    }
+  }
+}
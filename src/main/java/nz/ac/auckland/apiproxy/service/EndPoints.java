@@ -1,8 +1,47 @@
 package nz.ac.auckland.apiproxy.service;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 public class EndPoints {
+  public static final String PROXY_BASE_URL =
+      "https://us-central1-api-proxies-and-wrappers.cloudfunctions.net";
+
   public static final String PROXY_OPENAI_CHAT_COMPLETIONS =
-      "https://us-central1-api-proxies-and-wrappers.cloudfunctions.net/proxy/openai-chat-completion";
-  public static final String PROXY_TEXT_TO_SPEECH =
-      "https://us-central1-api-proxies-and-wrappers.cloudfunctions.net/proxy/text-to-speech";
+      PROXY_BASE_URL + "/proxy/openai-chat-completion";
+  public static final String PROXY_TEXT_TO_SPEECH = PROXY_BASE_URL + "/proxy/text-to-speech";
+
+  private static volatile List<String> baseUrls = List.of(PROXY_BASE_URL);
+
+  /**
+   * Sets the hosts serving the proxy paths, e.g. several regions or a local proxy simulator. Calls
+   * are routed between them by {@link EndpointRouter}.
+   */
+  public static void setBaseUrls(List<String> baseUrls) {
+    List<String> urls = new ArrayList<>();
+    if (baseUrls != null) {
+      for (String url : baseUrls) {
+        urls.add(url.endsWith("/") ? url.substring(0, url.length() - 1) : url);
+      }
+    }
+    EndPoints.baseUrls =
+        urls.isEmpty() ? List.of(PROXY_BASE_URL) : Collections.unmodifiableList(urls);
+  }
+
+  public static void setBaseUrl(String baseUrl) {
+    setBaseUrls(baseUrl == null ? null : List.of(baseUrl));
+  }
+
+  public static List<String> getBaseUrls() {
+    return baseUrls;
+  }
+
+  /** Returns the URL to call for one of the endpoints above on the given host. */
+  public static String resolve(String endpoint, String baseUrl) {
+    if (endpoint.startsWith(PROXY_BASE_URL)) {
+      return baseUrl + endpoint.substring(PROXY_BASE_URL.length());
+    }
+    return endpoint;
+  }
 }
@@ -0,0 +1,167 @@
+package nz.ac.auckland.apiproxy.service;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chooses which proxy host serves each call. Every host keeps an exponentially weighted moving
+ * average of its response times; a call goes to the host with the lowest average scaled by its
+ * outstanding calls, so a slow or busy region is avoided. A host that fails a call is skipped for
+ * a cool-down period, or while its {@link CircuitBreaker} is open, which makes the next retry fail
+ * over to another host. A small share of calls goes to a random healthy host so averages of unused
+ * hosts stay current.
+ */
+public class EndpointRouter {
+
+  private static final double SMOOTHING = 0.2;
+  private static final double EXPLORE_RATE = 0.05;
+
+  private static final Map<String, Target> targets = new ConcurrentHashMap<>();
+  private static final Map<String, Target> targetsByOrigin = new ConcurrentHashMap<>();
+
+  private static volatile long coolDownMillis = 30000;
+
+  /** Sets how long a host is skipped after a failed call. */
+  public static void setCoolDownMillis(long coolDownMillis) {
+    EndpointRouter.coolDownMillis = coolDownMillis;
+  }
+
+  public static Map<String, Target> getTargets() {
+    return Collections.unmodifiableMap(targets);
+  }
+
+  /** Returns the host to send the next call to. */
+  public static Target choose() {
+    List<String> baseUrls = EndPoints.getBaseUrls();
+    if (baseUrls.size() == 1) {
+      return target(baseUrls.get(0));
+    }
+
+    long now = System.currentTimeMillis();
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    boolean explore = random.nextDouble() < EXPLORE_RATE;
+    Target explored = null;
+    Target best = null;
+    Target leastDown = null;
+    int healthy = 0;
+    for (String baseUrl : baseUrls) {
+      Target target = target(baseUrl);
+      if (target.isDown(now)) {
+        if (leastDown == null || target.downUntil < leastDown.downUntil) {
+          leastDown = target;
+        }
+        continue;
+      }
+      healthy++;
+      // Reservoir sampling picks a uniformly random healthy host when exploring
+      if (explore && random.nextInt(healthy) == 0) {
+        explored = target;
+      }
+      if (best == null || target.score() < best.score()) {
+        best = target;
+      }
+    }
+    if (explored != null) {
+      return explored;
+    }
+    // With every host cooling down, try the one that recovers first
+    return best != null ? best : leastDown;
+  }
+
+  /** Records the time a host took to start answering a request to the given URI. */
+  public static void recordResponseTime(URI uri, long nanos) {
+    Target target = targetsByOrigin.get(origin(uri));
+    if (target != null) {
+      target.recordResponseTime(nanos);
+    }
+  }
+
+  private static Target target(String baseUrl) {
+    Target target = targets.get(baseUrl);
+    if (target == null) {
+      target = targets.computeIfAbsent(baseUrl, Target::new);
+      // Response times are reported by URI, so also index hosts by scheme, host and port
+      targetsByOrigin.putIfAbsent(target.origin, target);
+    }
+    return target;
+  }
+
+  private static String origin(URI uri) {
+    return uri.getScheme() + "://" + uri.getRawAuthority();
+  }
+
+  /** Routing state of one proxy host. */
+  public static class Target {
+
+    private final String baseUrl;
+    private final String origin;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private double averageNanos = 0;
+    private volatile long downUntil = 0;
+
+    Target(String baseUrl) {
+      this.baseUrl = baseUrl;
+      this.origin = origin(URI.create(baseUrl));
+    }
+
+    public String getBaseUrl() {
+      return baseUrl;
+    }
+
+    public String resolve(String endpoint) {
+      return EndPoints.resolve(endpoint, baseUrl);
+    }
+
+    public synchronized double getAverageMillis() {
+      return averageNanos / 1e6;
+    }
+
+    public int getOutstanding() {
+      return outstanding.get();
+    }
+
+    public long getCallCount() {
+      return calls.get();
+    }
+
+    public long getFailureCount() {
+      return failures.get();
+    }
+
+    public boolean isDown(long nowMillis) {
+      return nowMillis < downUntil || CircuitBreaker.forHost(baseUrl).isRejecting(nowMillis);
+    }
+
+    void begin() {
+      outstanding.incrementAndGet();
+      calls.incrementAndGet();
+    }
+
+    void end(boolean failed) {
+      outstanding.decrementAndGet();
+      if (failed) {
+        failures.incrementAndGet();
+        downUntil = System.currentTimeMillis() + coolDownMillis;
+      }
+    }
+
+    synchronized void recordResponseTime(long nanos) {
+      averageNanos = averageNanos == 0 ? nanos : averageNanos + SMOOTHING * (nanos - averageNanos);
+    }
+
+    private synchronized double score() {
+      // Unmeasured hosts score lowest, so every host is tried early on
+      return (averageNanos + 1) * (outstanding.get() + 1);
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package nz.ac.auckland.apiproxy.service;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+import nz.ac.auckland.apiproxy.metrics.ProxyMetrics;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+/**
+ * Request body that writes its JSON straight to the connection with a Jackson generator, instead
+ * of building the whole document as a string first. The body is written again on every call to
+ * {@link #writeTo(OutputStream)}, so the entity can be resent when a request is retried.
+ */
+public class JsonStreamingEntity extends AbstractHttpEntity {
+
+  /** Writes the JSON body to a generator. */
+  @FunctionalInterface
+  public interface JsonBody {
+    void writeTo(JsonGenerator generator) throws IOException;
+  }
+
+  private final JsonBody body;
+  private final boolean gzip;
+
+  public JsonStreamingEntity(JsonBody body, boolean gzip) {
+    this.body = body;
+    this.gzip = gzip;
+    setContentType(ContentType.APPLICATION_JSON.toString());
+    setChunked(true);
+    if (gzip) {
+      setContentEncoding("gzip");
+    }
+  }
+
+  @Override
+  public boolean isRepeatable() {
+    return true;
+  }
+
+  @Override
+  public long getContentLength() {
+    return -1;
+  }
+
+  @Override
+  public InputStream getContent() throws IOException {
+    // Only used by code that wants to inspect the body, requests are sent through writeTo
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    writeTo(buffer);
+    return new ByteArrayInputStream(buffer.toByteArray());
+  }
+
+  @Override
+  public void writeTo(OutputStream outStream) throws IOException {
+    long start = System.nanoTime();
+    OutputStream target = gzip ? new GZIPOutputStream(outStream, 8192) : outStream;
+    try (JsonGenerator generator =
+        ApiProxyJson.getMapper().getFactory().createGenerator(target, JsonEncoding.UTF8)) {
+      // The connection stream belongs to the HTTP client, only flush it
+      generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      body.writeTo(generator);
+    }
+    if (gzip) {
+      ((GZIPOutputStream) target).finish();
+    }
+    ProxyMetrics.SERIALIZATION.record(System.nanoTime() - start);
+  }
+
+  @Override
+  public boolean isStreaming() {
+    return false;
+  }
+}
@@ -0,0 +1,162 @@
+package nz.ac.auckland.apiproxy.service;
+
+import java.io.IOException;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.apiproxy.metrics.ProxyMetrics;
+
+/**
+ * Runs a call to a proxy endpoint with retries, a per-endpoint concurrency limit and a per-host
+ * circuit breaker, on the host chosen by {@link EndpointRouter}. Every request class sends its HTTP
+ * requests through here, so policies apply to chat and TTS alike.
+ */
+public class ProxyCallExecutor {
+
+  /** A single attempt at calling the proxy. */
+  @FunctionalInterface
+  public interface Attempt<T> {
+    T run(String url) throws IOException, ApiProxyException;
+  }
+
+  // When the response to the current attempt on this thread started to arrive
+  private static final ThreadLocal<Long> responseStartNanos = new ThreadLocal<>();
+
+  public static <T> T execute(String endpoint, RetryPolicy retryPolicy, Attempt<T> attempt)
+      throws ApiProxyException {
+    return execute(endpoint, retryPolicy, RequestPriority.INTERACTIVE, null, attempt);
+  }
+
+  /**
+   * Runs the call until it succeeds, fails permanently, or the handle is cancelled or reaches its
+   * deadline. The priority decides the call's place in line when the endpoint is at its
+   * concurrency limit. The attempt should pass the handle on to {@link ApiProxyHttpClient} so that
+   * the request in flight is aborted too.
+   */
+  public static <T> T execute(
+      String endpoint,
+      RetryPolicy retryPolicy,
+      RequestPriority priority,
+      CallHandle handle,
+      Attempt<T> attempt)
+      throws ApiProxyException {
+    ConcurrencyLimiter limiter = ConcurrencyLimiter.forEndpoint(endpoint);
+
+    long callStart = System.nanoTime();
+    try {
+      return execute(endpoint, retryPolicy, priority, handle, attempt, limiter);
+    } finally {
+      ProxyMetrics.CALL.record(System.nanoTime() - callStart);
+    }
+  }
+
+  private static <T> T execute(
+      String endpoint,
+      RetryPolicy retryPolicy,
+      RequestPriority priority,
+      CallHandle handle,
+      Attempt<T> attempt,
+      ConcurrencyLimiter limiter)
+      throws ApiProxyException {
+    int attemptNumber = 1;
+    while (true) {
+      checkHandle(handle, null);
+      long queueStart = System.nanoTime();
+      acquire(limiter, priority, handle);
+      ProxyMetrics.QUEUE_WAIT.record(System.nanoTime() - queueStart);
+      // Each host has its own breaker, so one failing region doesn't shut out the others
+      EndpointRouter.Target target = EndpointRouter.choose();
+      CircuitBreaker breaker = CircuitBreaker.forHost(target.getBaseUrl());
+      if (!breaker.tryAcquire()) {
+        limiter.recordIgnored(priority);
+        throw new ApiProxyException(
+            "Problem calling API: the proxy is unavailable, please try again shortly.");
+      }
+
+      ApiProxyException failure;
+      target.begin();
+      long start = System.nanoTime();
+      responseStartNanos.remove();
+      try {
+        T result = attempt.run(target.resolve(endpoint));
+        target.end(false);
+        breaker.recordSuccess();
+        // A streamed reply can take a long time to finish, so only time it until it starts
+        Long responseStart = responseStartNanos.get();
+        limiter.recordSuccess(
+            priority, (responseStart == null ? System.nanoTime() : responseStart) - start);
+        return result;
+      } catch (IOException e) {
+        failure = new ApiProxyException("Problem calling API: " + e.getMessage(), e);
+      } catch (ApiProxyException e) {
+        failure = e;
+      } catch (RuntimeException e) {
+        target.end(false);
+        breaker.recordIgnored();
+        limiter.recordIgnored(priority);
+        throw e;
+      }
+
+      if (handle != null && handle.isDone()) {
+        // Giving up says nothing about the proxy's health
+        target.end(false);
+        breaker.recordIgnored();
+        limiter.recordIgnored(priority);
+        checkHandle(handle, failure);
+      }
+
+      ProxyMetrics.ERRORS.record(failure.getCode());
+
+      // Transient failures are what the proxy returns under load, so they also shrink the limit,
+      // and the host is skipped for a while so the retry fails over to another one
+      boolean retryable = retryPolicy.isRetryable(failure);
+      target.end(retryable);
+      if (retryable) {
+        breaker.recordFailure();
+        limiter.recordDropped(priority);
+      } else {
+        breaker.recordIgnored();
+        limiter.recordIgnored(priority);
+      }
+      if (!retryable || attemptNumber >= retryPolicy.getMaxAttempts()) {
+        throw failure;
+      }
+
+      try {
+        long delay = retryPolicy.getDelayMillis(attemptNumber);
+        Thread.sleep(handle == null ? delay : Math.min(delay, handle.getRemainingMillis()));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ApiProxyException("Problem calling API: the request was interrupted.", e);
+      }
+      attemptNumber++;
+    }
+  }
+
+  /** Notes that the response to the attempt running on this thread has started to arrive. */
+  static void recordResponseStart(long nanos) {
+    responseStartNanos.set(nanos);
+  }
+
+  private static void checkHandle(CallHandle handle, Exception cause) throws ApiProxyException {
+    if (handle != null && handle.isDone()) {
+      throw new ApiProxyException("Problem calling API: " + handle.getReason() + ".", cause);
+    }
+  }
+
+  private static void acquire(
+      ConcurrencyLimiter limiter, RequestPriority priority, CallHandle handle)
+      throws ApiProxyException {
+    boolean acquired;
+    try {
+      acquired = handle == null ? limiter.acquire(priority) : limiter.acquire(priority, handle);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ApiProxyException("Problem calling API: the request was interrupted.", e);
+    }
+    if (!acquired) {
+      checkHandle(handle, null);
+      throw new ApiProxyException(
+          "Problem calling API: too many requests are waiting for the proxy, please try again"
+              + " shortly.");
+    }
+  }
+}
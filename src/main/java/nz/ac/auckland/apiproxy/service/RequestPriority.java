@@ -0,0 +1,14 @@
+package nz.ac.auckland.apiproxy.service;
+
+/**
+ * How urgent a proxy call is. When calls have to wait for the concurrency limit, more urgent ones
+ * go first, see {@link ConcurrencyLimiter}.
+ */
+public enum RequestPriority {
+  /** A result the player is waiting on with nothing else to do, e.g. end-of-game feedback. */
+  FEEDBACK,
+  /** A reply to something the player just did, e.g. a chat turn. */
+  INTERACTIVE,
+  /** Work done ahead of time that nobody is waiting on yet, e.g. prefetches and summaries. */
+  SPECULATIVE
+}
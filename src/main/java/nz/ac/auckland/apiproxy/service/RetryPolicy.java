@@ -0,0 +1,77 @@
+package nz.ac.auckland.apiproxy.service;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+
+/**
+ * Decides whether a failed proxy call is retried and how long to wait first. Connection failures
+ * and the proxy codes registered as retryable (timeouts, rate limiting, server errors) are
+ * retried with exponential backoff and full jitter; all other codes fail immediately.
+ */
+public class RetryPolicy {
+
+  public static RetryPolicy defaults() {
+    return new RetryPolicy()
+        .setMaxAttempts(3)
+        .setBaseDelayMillis(250)
+        .setMaxDelayMillis(4000)
+        .addRetryableCodes(408, 429, 500, 502, 503, 504);
+  }
+
+  public static RetryPolicy none() {
+    return new RetryPolicy().setMaxAttempts(1);
+  }
+
+  private int maxAttempts = 1;
+  private long baseDelayMillis = 0;
+  private long maxDelayMillis = 0;
+  private final Set<Integer> retryableCodes = new HashSet<>();
+
+  public RetryPolicy setMaxAttempts(int maxAttempts) {
+    if (maxAttempts < 1) {
+      throw new IllegalArgumentException(
+          "There must be at least 1 attempt, but was given " + maxAttempts);
+    }
+    this.maxAttempts = maxAttempts;
+    return this;
+  }
+
+  public RetryPolicy setBaseDelayMillis(long baseDelayMillis) {
+    this.baseDelayMillis = Math.max(0, baseDelayMillis);
+    return this;
+  }
+
+  public RetryPolicy setMaxDelayMillis(long maxDelayMillis) {
+    this.maxDelayMillis = Math.max(0, maxDelayMillis);
+    return this;
+  }
+
+  public RetryPolicy addRetryableCodes(int... codes) {
+    for (int code : codes) {
+      retryableCodes.add(code);
+    }
+    return this;
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  /** Returns whether the failure is transient, i.e. a sign that the proxy is degraded. */
+  public boolean isRetryable(ApiProxyException e) {
+    if (e.getCode() != null) {
+      return retryableCodes.contains(e.getCode());
+    }
+    return e.getCause() instanceof IOException;
+  }
+
+  /** Returns the delay before the given retry, counting the first retry as 1. */
+  public long getDelayMillis(int retry) {
+    long ceiling = baseDelayMillis << Math.min(retry - 1, 20);
+    ceiling = Math.min(ceiling, maxDelayMillis);
+    return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+  }
+}
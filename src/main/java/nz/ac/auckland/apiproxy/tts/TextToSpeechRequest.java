@@ -1,16 +1,21 @@
 package nz.ac.auckland.apiproxy.tts;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import javax.json.Json;
-import javax.json.JsonObject;
-import javax.json.JsonObjectBuilder;
+import com.fasterxml.jackson.databind.ObjectReader;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
 import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.apiproxy.service.ApiProxyExecutors;
+import nz.ac.auckland.apiproxy.service.ApiProxyHttpClient;
+import nz.ac.auckland.apiproxy.service.ApiProxyJson;
+import nz.ac.auckland.apiproxy.service.CallHandle;
 import nz.ac.auckland.apiproxy.service.EndPoints;
+import nz.ac.auckland.apiproxy.service.JsonStreamingEntity;
+import nz.ac.auckland.apiproxy.service.ProxyCallExecutor;
+import nz.ac.auckland.apiproxy.service.RequestPriority;
+import nz.ac.auckland.apiproxy.service.RetryPolicy;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 
 public class TextToSpeechRequest {
 
@@ -89,12 +94,21 @@ public class TextToSpeechRequest {
     }
   }
 
+  private static final ObjectReader RESPONSE_READER =
+      ApiProxyJson.readerFor(ResponseTtsViaProxy.class);
+
   private ApiProxyConfig config;
 
   private String text = null; // Required
   private Provider provider = Provider.OPENAI; // Default provider
   private Voice voice = Voice.NOT_SET;
 
+  private RetryPolicy retryPolicy = RetryPolicy.defaults();
+
+  private CallHandle callHandle = null;
+
+  private RequestPriority priority = RequestPriority.INTERACTIVE;
+
   public TextToSpeechRequest(ApiProxyConfig config) {
     this.config = config;
   }
@@ -114,7 +128,26 @@ public class TextToSpeechRequest {
     return this;
   }
 
-  @SuppressWarnings("resource")
+  public TextToSpeechRequest setRetryPolicy(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy == null ? RetryPolicy.none() : retryPolicy;
+    return this;
+  }
+
+  /**
+   * Sets the handle used to cancel the next execution or give it a deadline. A handle only
+   * applies to one execution, so set a new one before each.
+   */
+  public TextToSpeechRequest setCallHandle(CallHandle callHandle) {
+    this.callHandle = callHandle;
+    return this;
+  }
+
+  /** Sets how urgent this request is compared to other calls waiting for the same endpoint. */
+  public TextToSpeechRequest setPriority(RequestPriority priority) {
+    this.priority = priority == null ? RequestPriority.INTERACTIVE : priority;
+    return this;
+  }
+
   public TextToSpeechResult execute() throws ApiProxyException {
 
     if (isEmpty(text)) {
@@ -144,43 +177,77 @@ public class TextToSpeechRequest {
     }
 
     try {
-      JsonObjectBuilder jsonOverallBuilder =
-          Json.createObjectBuilder() //
-              .add("provider", provider.getProviderCode()) //
-              .add("text", text);
-
-      jsonOverallBuilder.add("voice", voice.getVoiceCode());
-      jsonOverallBuilder.add("access_token", config.getApiKey()).add("email", config.getEmail());
-
-      CloseableHttpClient client = HttpClients.createDefault();
-
-      ResponseTtsViaProxy responseTts = null;
-      JsonObject value = jsonOverallBuilder.build();
-
-      HttpPost httpPost = new HttpPost(EndPoints.PROXY_TEXT_TO_SPEECH);
-      httpPost.setHeader("Content-Type", "application/json");
-      httpPost.setHeader("Accept", "application/json");
-      httpPost.setEntity(new StringEntity(value.toString()));
-      ObjectMapper mapperApiMapper = new ObjectMapper();
-
-      responseTts =
-          (ResponseTtsViaProxy)
-              client.execute(
-                  httpPost,
-                  httpResponse ->
-                      mapperApiMapper.readValue(
-                          httpResponse.getEntity().getContent(), ResponseTtsViaProxy.class));
-
-      if (!responseTts.success && responseTts.code != 0) {
-        throw new ApiProxyException("Problem calling API: " + responseTts.message);
-      }
+      JsonStreamingEntity entity = buildEntity();
+      ApiProxyHttpClient client = ApiProxyHttpClient.getInstance(config);
+      CallHandle handle = callHandle;
+
+      ResponseTtsViaProxy responseTts =
+          ProxyCallExecutor.execute(
+              EndPoints.PROXY_TEXT_TO_SPEECH,
+              retryPolicy,
+              priority,
+              handle,
+              url -> {
+                HttpPost httpPost = new HttpPost(url);
+                httpPost.setHeader("Content-Type", "application/json");
+                httpPost.setHeader("Accept", "application/json");
+                httpPost.setEntity(entity);
+
+                ResponseTtsViaProxy response =
+                    client.execute(
+                        httpPost,
+                        httpResponse ->
+                            RESPONSE_READER.readValue(httpResponse.getEntity().getContent()),
+                        handle);
+
+                if (!response.success && response.code != 0) {
+                  throw new ApiProxyException(
+                      "Problem calling API: " + response.message, response.code);
+                }
+                return response;
+              });
       return new TextToSpeechResult(responseTts.audio);
 
+    } catch (ApiProxyException e) {
+      throw e;
     } catch (Exception e) {
-      throw new ApiProxyException("Problem calling API: " + e.getMessage());
+      throw new ApiProxyException("Problem calling API: " + e.getMessage(), e);
     }
   }
 
+  public CompletableFuture<TextToSpeechResult> executeAsync() {
+    return executeAsync(ApiProxyExecutors.getDefaultExecutor());
+  }
+
+  public CompletableFuture<TextToSpeechResult> executeAsync(Executor executor) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            return execute();
+          } catch (ApiProxyException e) {
+            throw new CompletionException(e);
+          }
+        },
+        executor);
+  }
+
+  JsonStreamingEntity buildEntity() {
+    String providerCode = provider.getProviderCode();
+    String voiceCode = voice.getVoiceCode();
+    String body = text;
+    return new JsonStreamingEntity(
+        json -> {
+          json.writeStartObject();
+          json.writeStringField("provider", providerCode);
+          json.writeStringField("text", body);
+          json.writeStringField("voice", voiceCode);
+          json.writeStringField("access_token", config.getApiKey());
+          json.writeStringField("email", config.getEmail());
+          json.writeEndObject();
+        },
+        false);
+  }
+
   private boolean isEmpty(String text) {
     return text == null || text.isEmpty();
   }
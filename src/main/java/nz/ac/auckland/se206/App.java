@@ -19,6 +19,7 @@ import javafx.util.Duration;
 import nz.ac.auckland.se206.controllers.CrimeController;
 import nz.ac.auckland.se206.controllers.GuessingController;
 import nz.ac.auckland.se206.controllers.ResultsController;
+import nz.ac.auckland.se206.controllers.SuspectController;
 
 /**
  * This is the entry point of the JavaFX application. This class initializes and runs the JavaFX
@@ -124,11 +125,24 @@ public class App extends Application {
    * @throws IOException if the FXML file is not found
    */
   public static void setScene(String fxml) throws IOException {
+    // Replies for a scene that is being left are no longer needed
+    if (!fxml.equals("suspect")) {
+      ((SuspectController) App.loaders.get("suspect").getController()).cancelChat();
+    }
+    if (!fxml.equals("results")) {
+      ((ResultsController) App.loaders.get("results").getController()).cancelFeedback();
+    }
+
     // Start game
     if (App.timer.getTime() == 0 && fxml.equals("crime")) {
       CrimeController crimeController = (CrimeController) App.loaders.get("crime").getController();
       crimeController.reset();
 
+      // Greetings are ready by the time the player reaches the suspects
+      SuspectController suspectController =
+          (SuspectController) App.loaders.get("suspect").getController();
+      suspectController.prefetchGreetings();
+
       GuessingController guessingController =
           (GuessingController) App.loaders.get("guessing").getController();
       guessingController.resetInfo();
@@ -0,0 +1,60 @@
+package nz.ac.auckland.se206;
+
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.property.StringProperty;
+
+/**
+ * One message in a chat transcript. The text is a property so that a reply being streamed in can
+ * be updated in place without touching the rest of the transcript.
+ */
+public class ChatEntry {
+  private final String speaker;
+  private final StringProperty text;
+
+  /**
+   * Creates a transcript entry.
+   *
+   * @param speaker the name shown before the message, or null to show the text alone.
+   * @param text the message text.
+   */
+  public ChatEntry(String speaker, String text) {
+    this.speaker = speaker;
+    this.text = new SimpleStringProperty(text);
+  }
+
+  /**
+   * Returns the name shown before the message.
+   *
+   * @return the speaker, or null if the entry has none.
+   */
+  public String getSpeaker() {
+    return this.speaker;
+  }
+
+  /**
+   * Returns the message text.
+   *
+   * @return the text.
+   */
+  public String getText() {
+    return this.text.get();
+  }
+
+  /**
+   * Replaces the message text.
+   *
+   * @param text the new text.
+   */
+  public void setText(String text) {
+    this.text.set(text);
+  }
+
+  /**
+   * Returns the text property, for views that follow changes to the text.
+   *
+   * @return the text property.
+   */
+  public StringProperty textProperty() {
+    return this.text;
+  }
+}
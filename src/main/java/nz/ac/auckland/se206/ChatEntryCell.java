@@ -0,0 +1,32 @@
+package nz.ac.auckland.se206;
+
+import javafx.beans.binding.Bindings;
+import javafx.scene.control.ListCell;
+
+/**
+ * List cell showing one chat transcript entry as "speaker: text", wrapped to the width of the list.
+ * The cell follows the entry's text, so a streamed reply only redraws its own cell.
+ */
+public class ChatEntryCell extends ListCell<ChatEntry> {
+
+  /** Creates a cell that wraps its text instead of widening the list. */
+  public ChatEntryCell() {
+    setWrapText(true);
+    // Let the list decide the width, so long messages wrap rather than scroll sideways
+    setPrefWidth(0);
+  }
+
+  @Override
+  protected void updateItem(ChatEntry entry, boolean empty) {
+    super.updateItem(entry, empty);
+    textProperty().unbind();
+
+    if (empty || entry == null) {
+      setText(null);
+    } else if (entry.getSpeaker() == null) {
+      textProperty().bind(entry.textProperty());
+    } else {
+      textProperty().bind(Bindings.concat(entry.getSpeaker(), ": ", entry.textProperty()));
+    }
+  }
+}
@@ -1,18 +1,38 @@
 package nz.ac.auckland.se206;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import javafx.application.Platform;
-import javafx.concurrent.Task;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
-import javafx.scene.control.TextArea;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
+import nz.ac.auckland.apiproxy.chat.openai.BpeTokenizer;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionCache;
 import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest.Model;
 import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionResult;
 import nz.ac.auckland.apiproxy.chat.openai.ChatMessage;
 import nz.ac.auckland.apiproxy.chat.openai.Choice;
+import nz.ac.auckland.apiproxy.chat.openai.ConversationHistoryPolicy;
+import nz.ac.auckland.apiproxy.chat.openai.HedgePolicy;
+import nz.ac.auckland.apiproxy.chat.openai.ModelRouter;
+import nz.ac.auckland.apiproxy.chat.openai.SummarizingHistoryPolicy;
+import nz.ac.auckland.apiproxy.chat.openai.TokenBudgetPolicy;
 import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
 import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.apiproxy.metrics.Histogram;
+import nz.ac.auckland.apiproxy.metrics.ProxyMetrics;
+import nz.ac.auckland.apiproxy.service.CallHandle;
+import nz.ac.auckland.apiproxy.service.RequestPriority;
 import nz.ac.auckland.se206.prompts.PromptEngineering;
 
 /**
@@ -20,6 +40,18 @@ import nz.ac.auckland.se206.prompts.PromptEngineering;
  * model via the API proxy.
  */
 public class ChatManager {
+  private static final Histogram firstDeltaLatency = ProxyMetrics.latency("chatFirstDelta");
+  private static final Histogram replyLatency = ProxyMetrics.latency("chatReply");
+  private static final UiUpdateCoalescer uiUpdates = new UiUpdateCoalescer();
+
+  private static ChatCompletionCache responseCache;
+
+  private static ModelRouter modelRouter;
+
+  // Replies slower than 95% of the others are raced against a copy sent to the fastest model
+  private static final HedgePolicy hedgePolicy =
+      HedgePolicy.afterPercentile(95).setModel(Model.GPT_3_5_TURBO);
+
   private final Map<String, String> promptSources =
       new HashMap<String, String>() {
         {
@@ -34,192 +66,437 @@ public class ChatManager {
       "Actually, I have talked to you before, mention my return as the conversation starter and you"
           + " don't need to introduce yourself.";
 
-  @FXML private TextArea txtaChat;
+  private final String introducePrompt =
+      "This is the first time I am talking to you, start the conversation by introducing yourself.";
+
+  private final String failedReply = "(No answer, please try again in a moment.)";
+
+  private final int historyTokenBudget = 2000;
+
+  private final int historyKeepRecent = 12;
+
+  private final long replyTimeoutMillis = 30000;
+
+  private ListView<ChatEntry> chatView;
+
+  private ApiProxyConfig config;
+
+  private Map<String, ChatCompletionRequest> conversations =
+      new HashMap<String, ChatCompletionRequest>();
+
+  private ChatCompletionRequest conversation;
+
+  private Map<String, ConversationMailbox> mailboxes = new HashMap<String, ConversationMailbox>();
+
+  private ConversationMailbox mailbox;
+
+  private Map<String, CompletableFuture<ChatMessage>> greetings =
+      new HashMap<String, CompletableFuture<ChatMessage>>();
+
+  private Map<String, CallHandle> greetingCalls = new HashMap<String, CallHandle>();
 
-  private ChatCompletionRequest chatCompletionRequest;
+  private CallHandle currentCall;
 
-  private Map<String, String> chatHistory = new HashMap<String, String>();
+  private RequestPriority priority = RequestPriority.INTERACTIVE;
+
+  private IntSupplier roundClock = () -> 0;
+
+  private Map<String, ObservableList<ChatEntry>> transcripts =
+      new HashMap<String, ObservableList<ChatEntry>>();
+
+  private ObservableList<ChatEntry> transcript;
+
+  private ChatEntry pendingReply;
+
+  private ObservableList<ChatEntry> pendingTranscript;
 
   private Map<String, String> promptMap = new HashMap<String, String>();
 
-  private Boolean waitingReply;
+  private Map<String, List<ChatMessage>> personas = new HashMap<String, List<ChatMessage>>();
 
-  private Task<ChatMessage> chatTask;
+  private int chatCount = 0;
 
   private String suspect;
 
   /**
    * Constructor for the ChatManager class.
    *
-   * @param txtaChat the chat text area.
+   * @param chatView the list view showing the chat transcript.
    */
-  public ChatManager(TextArea txtaChat) {
-    this.txtaChat = txtaChat;
+  public ChatManager(ListView<ChatEntry> chatView) {
+    this.chatView = chatView;
+
+    // Each message is its own cell, so updating one never lays out the whole transcript
+    chatView.setCellFactory(view -> new ChatEntryCell());
+    chatView.setPlaceholder(new Label());
+    showTranscript(FXCollections.observableArrayList());
+
+    // Compile the prompt templates up front, so switching suspects never waits on reading them.
+    // Only the suspect's name is sure to be given, so a template needing more fails here at once
+    for (String promptSource : this.promptSources.values()) {
+      PromptEngineering.getTemplate(promptSource, Set.of("name"));
+    }
 
-    txtaChat.selectPositionCaret(0);
-    txtaChat.deselect();
+    // Load the tokenizers in the background, so the first reply never waits on reading their ranks
+    CompletableFuture.runAsync(
+        () -> {
+          for (Model model : Model.values()) {
+            BpeTokenizer.forModel(model);
+          }
+        });
 
     try {
-      ApiProxyConfig config = ApiProxyConfig.readConfig();
-      this.chatCompletionRequest =
-          new ChatCompletionRequest(config)
-              .setN(1)
-              .setTemperature(0.2)
-              .setTopP(0.5)
-              .setMaxTokens(100);
+      this.config = ApiProxyConfig.readConfig();
     } catch (ApiProxyException e) {
       e.printStackTrace();
     }
+  }
+
+  /**
+   * Returns the response cache shared by all chat managers, creating it on first use. Greetings and
+   * common opening questions repeat across games, so they are answered from the cache.
+   *
+   * @param config the API proxy configuration holding the cache settings.
+   * @return the shared response cache.
+   */
+  private static synchronized ChatCompletionCache getResponseCache(ApiProxyConfig config) {
+    if (responseCache == null) {
+      String directory = config.getCacheDirectory();
+      responseCache =
+          new ChatCompletionCache(
+              config.getCacheMaxEntries(),
+              directory == null ? null : Paths.get(directory),
+              config.getCacheMaxDiskEntries(),
+              TimeUnit.DAYS.toMillis(config.getCacheMaxAgeDays()));
+    }
+    return responseCache;
+  }
+
+  /**
+   * Returns the model router shared by all chat managers, creating it on first use. Sharing it
+   * lets every conversation learn from the reply times of the others.
+   *
+   * @return the shared model router.
+   */
+  private static synchronized ModelRouter getModelRouter() {
+    if (modelRouter == null) {
+      modelRouter = new ModelRouter(Model.GPT_4o, Model.GPT_3_5_TURBO);
+      ProxyMetrics.register("type=ModelRouter,name=chat", modelRouter);
+    }
+    return modelRouter;
+  }
 
-    this.waitingReply = false;
+  /**
+   * Creates a chat completion request with the settings used for all suspects.
+   *
+   * @return the new chat completion request.
+   */
+  private ChatCompletionRequest createRequest() {
+    return new ChatCompletionRequest(this.config)
+        .setN(1)
+        .setTemperature(0.2)
+        .setTopP(0.5)
+        .setMaxTokens(100)
+        .setCache(getResponseCache(this.config));
   }
 
   /**
-   * Generates the system prompt based on the profession.
+   * Generates the system prompt for the given suspect.
    *
+   * @param suspect the suspect to generate the prompt for.
    * @return the system prompt string.
    */
-  private String getSystemPrompt() {
-    return PromptEngineering.getPrompt(this.promptSources.get(this.suspect), this.promptMap);
+  private String getSystemPrompt(String suspect) {
+    Map<String, String> data = new HashMap<String, String>(this.promptMap);
+    data.put("name", suspect);
+    return PromptEngineering.getTemplate(this.promptSources.get(suspect), data.keySet())
+        .render(data);
   }
 
   /**
-   * Appends a chat message to the chat text area.
+   * Returns the character prompt of the given suspect, built once so that every request to the
+   * suspect starts with exactly the same messages and can reuse the provider's prompt cache.
    *
-   * @param msg the chat message to append.
+   * @param suspect the suspect to get the character prompt of.
+   * @return the messages to send ahead of every conversation with the suspect.
    */
-  private void appendChatMessage(ChatMessage msg) {
-    // Add message based on role
-    StringBuilder message = new StringBuilder();
-    message.append((txtaChat.getText().isEmpty() ? "" : "\n\n"));
-    message.append(msg.getRole().equals("user") ? "Me" : this.suspect);
-    message.append(": ");
-    message.append(msg.getContent());
-
-    txtaChat.appendText(message.toString());
-    txtaChat.selectPositionCaret(txtaChat.getLength());
-    txtaChat.deselect();
-
-    // Save message
-    if (this.suspect.equals("feedback")) {
-      txtaChat.setScrollTop(0);
-    } else {
-      chatHistory.put(this.suspect, txtaChat.getText());
+  private List<ChatMessage> getPersona(String suspect) {
+    return this.personas.computeIfAbsent(
+        suspect, name -> List.of(new ChatMessage("system", getSystemPrompt(name))));
+  }
+
+  /**
+   * Returns the conversation with the given suspect, starting it on first use. Every suspect has
+   * its own conversation, so a request only carries that suspect's character prompt and messages.
+   *
+   * @param suspect the suspect to get the conversation with.
+   * @return the chat completion request holding the conversation.
+   */
+  private ChatCompletionRequest getConversation(String suspect) {
+    return this.conversations.computeIfAbsent(
+        suspect,
+        name ->
+            createRequest()
+                .setPrefixMessages(getPersona(name))
+                .setHistoryPolicy(createHistoryPolicy())
+                .setHedgePolicy(hedgePolicy));
+  }
+
+  /**
+   * Creates the policy choosing which messages of a conversation are sent. Long conversations are
+   * cut to a token budget, or older messages are summarized if the configuration asks for it.
+   *
+   * @return a new history policy for one conversation.
+   */
+  private ConversationHistoryPolicy createHistoryPolicy() {
+    int summaryBatch = this.config.getHistorySummaryBatch();
+    if (summaryBatch > 0) {
+      return new SummarizingHistoryPolicy(this.config, this.historyKeepRecent, summaryBatch);
     }
+    return new TokenBudgetPolicy(this.historyTokenBudget);
   }
 
   /**
-   * Runs the GPT model with a given chat message.
+   * Returns the mailbox queueing the player's messages to the given suspect, creating it on first
+   * use. Lines typed while the suspect is still answering are sent together as one message.
    *
-   * @param msg the chat message to process.
-   * @return the response chat message.
-   * @throws ApiProxyException if there is an error communicating with the API proxy.
+   * @param suspect the suspect the messages are for.
+   * @return the mailbox of the conversation with the suspect.
    */
-  private ChatMessage runGpt(ChatMessage msg) throws ApiProxyException {
-    chatCompletionRequest.addMessage(msg);
-    try {
-      // Execute the chat completion request
-      ChatCompletionResult chatCompletionResult = chatCompletionRequest.execute();
-      Choice result = chatCompletionResult.getChoices().iterator().next();
-      chatCompletionRequest.addMessage(result.getChatMessage());
+  private ConversationMailbox getMailbox(String suspect) {
+    return this.mailboxes.computeIfAbsent(
+        suspect,
+        name ->
+            new ConversationMailbox(message -> startChatRequest(new ChatMessage("user", message)))
+                .setCoalesce(true));
+  }
 
-      System.out.println(result.getChatMessage().getContent());
+  /**
+   * Shows the given transcript in the chat view, scrolled to its latest message.
+   *
+   * @param transcript the transcript to show.
+   */
+  private void showTranscript(ObservableList<ChatEntry> transcript) {
+    this.transcript = transcript;
+    this.chatView.setItems(transcript);
+    if (!transcript.isEmpty()) {
+      this.chatView.scrollTo(transcript.size() - 1);
+    }
+  }
 
-      return result.getChatMessage();
-    } catch (ApiProxyException e) {
-      e.printStackTrace();
-      return null;
+  /**
+   * Adds an entry to a transcript, scrolling to it if the transcript is on show.
+   *
+   * @param transcript the transcript to add the entry to.
+   * @param entry the entry to add.
+   */
+  private void addEntry(ObservableList<ChatEntry> transcript, ChatEntry entry) {
+    transcript.add(entry);
+    if (transcript == this.transcript) {
+      this.chatView.scrollTo(entry);
     }
   }
 
   /**
-   * Starts a chat thread with the GPT model.
+   * Runs the GPT model on the conversation so far. The request runs asynchronously and the reply is
+   * streamed, with each piece of content passed to the given listener as it arrives.
    *
-   * @param msg the chat message to process.
+   * @param conversation the conversation to run the model on.
+   * @param onDelta the listener receiving partial reply content.
+   * @param call the handle used to cancel the request.
+   * @return a future completing with the response chat message, or null if the request failed.
+   *     The reply is not added to the conversation, which is only changed on the JavaFX thread.
    */
-  private void startChatThread(ChatMessage msg) {
-    // Set chat waiting message
-    String content = this.txtaChat.getText();
-
-    StringBuilder chat = new StringBuilder();
-    chat.append((!content.isEmpty() ? "\n\n" : ""));
-    chat.append(this.suspect);
-    chat.append(": Thinking...");
-
-    this.txtaChat.appendText(chat.toString());
-
-    // Create thread
-    Task<ChatMessage> chatTask =
-        new Task<>() {
-          // create GPT call
-          @Override
-          protected ChatMessage call() {
-            ChatMessage result = null;
-            try {
-              // make OpenAI API call
-              result = runGpt(msg);
-            } catch (ApiProxyException e) {
-              // catch error if call fails
+  private CompletableFuture<ChatMessage> runGpt(
+      ChatCompletionRequest conversation, Consumer<String> onDelta, CallHandle call) {
+    // Pick the model from the time left in the round and how fast each model has been answering
+    Model model =
+        getModelRouter().choose(this.roundClock.getAsInt(), conversation.estimatePromptTokens());
+    long start = System.nanoTime();
+
+    // Execute the chat completion request
+    return conversation
+        .setModel(model)
+        .setCallHandle(call)
+        .setPriority(this.priority)
+        .executeStreamingAsync(onDelta)
+        .thenApply(
+            chatCompletionResult -> {
+              // Replies served from the cache say nothing about the model's speed. A hedge may
+              // have answered from another model, so the time goes to the model that answered.
+              if (chatCompletionResult.getEstimatedPromptTokens() >= 0) {
+                Model answered = chatCompletionResult.getAnsweringModel();
+                getModelRouter()
+                    .recordReplyTime(
+                        answered == null ? model : answered, System.nanoTime() - start);
+              }
+              Choice result = chatCompletionResult.getChoices().iterator().next();
+
+              System.out.println(result.getChatMessage().getContent());
+
+              return result.getChatMessage();
+            })
+        .exceptionally(
+            e -> {
               e.printStackTrace();
-            }
-            return result;
+              return null;
+            });
+  }
+
+  /**
+   * Starts a chat request to the GPT model.
+   *
+   * @param msg the chat message to process.
+   */
+  private void startChatRequest(ChatMessage msg) {
+    startChatRequest(msg, null, null);
+  }
+
+  /**
+   * Starts a chat request to the GPT model. If a prefetched reply is given, it is used instead of
+   * sending a new request, unless the prefetch failed. The prefetch is cancelled along with the
+   * chat, so it never finishes for a chat the player has left.
+   *
+   * @param msg the chat message to process.
+   * @param prefetched the prefetched reply to the message, or null to send a request.
+   * @param prefetchCall the handle of the prefetch request, or null if there is none.
+   */
+  private void startChatRequest(
+      ChatMessage msg, CompletableFuture<ChatMessage> prefetched, CallHandle prefetchCall) {
+    // Set chat waiting message, which the reply replaces as it is streamed in
+    ObservableList<ChatEntry> transcript = this.transcript;
+    ChatEntry replyEntry = new ChatEntry(this.suspect, "Thinking...");
+    addEntry(transcript, replyEntry);
+    this.pendingReply = replyEntry;
+    this.pendingTranscript = transcript;
+
+    // make OpenAI API call, showing the reply as it is streamed in
+    int chatId = ++this.chatCount;
+    CallHandle call = createCallHandle();
+    this.currentCall = call;
+    if (prefetchCall != null) {
+      call.link(prefetchCall);
+    }
+    long start = System.nanoTime();
+    StringBuilder reply = new StringBuilder();
+    Consumer<String> onDelta =
+        delta -> {
+          if (reply.length() == 0) {
+            firstDeltaLatency.record(System.nanoTime() - start);
+          }
+          reply.append(delta);
+          // Ignore replies for chats that have since been replaced
+          if (!call.isCancelled()) {
+            uiUpdates.type(replyEntry, reply.toString());
           }
         };
-    this.chatTask = chatTask;
-
-    chatTask
-        .onSucceededProperty()
-        .set(
-            event -> {
-              if (this.chatTask.equals(chatTask)) {
-                Platform.runLater(
-                    () -> {
-                      ChatMessage chatMessage = chatTask.getValue();
-                      if (this.waitingReply && chatMessage != null) {
-                        txtaChat.setText(content);
-                        appendChatMessage(chatMessage);
-
-                        this.waitingReply = false;
-                      }
-                    });
-              }
-            });
-    Thread chatThread = new Thread(chatTask);
-    chatThread.setDaemon(true);
-    chatThread.start();
 
-    this.waitingReply = true;
+    // The conversation is only changed on the JavaFX thread, replies are added once they are in
+    ChatCompletionRequest conversation = this.conversation;
+    ConversationMailbox mailbox = this.mailbox;
+    conversation.addMessage(msg);
+    CompletableFuture<ChatMessage> chatReply;
+    if (prefetched == null) {
+      chatReply = runGpt(conversation, onDelta, call);
+    } else {
+      chatReply =
+          prefetched.thenCompose(
+              greeting -> {
+                if (greeting == null) {
+                  return runGpt(conversation, onDelta, call);
+                }
+                return CompletableFuture.completedFuture(greeting);
+              });
+    }
+
+    chatReply.thenAccept(
+        chatMessage ->
+            uiUpdates.post(
+                () -> {
+                  // Ignore replies for chats that have since been replaced, so a cancelled
+                  // request never adds its reply to the conversation
+                  if (this.chatCount != chatId) {
+                    return;
+                  }
+                  if (chatMessage != null) {
+                    conversation.addMessage(chatMessage);
+                    replyLatency.record(System.nanoTime() - start);
+                    uiUpdates.type(replyEntry, chatMessage.getContent());
+                  } else {
+                    // Let the player try again rather than waiting forever
+                    uiUpdates.show(replyEntry, this.failedReply);
+                  }
+                  this.pendingReply = null;
+
+                  // Send whatever the player typed in the meantime
+                  mailbox.done();
+                }));
+  }
+
+  /**
+   * Creates a handle for a new request. Requests are given up after the reply timeout, or when the
+   * round clock runs out if that comes first.
+   *
+   * @return the new call handle.
+   */
+  private CallHandle createCallHandle() {
+    long timeout = this.replyTimeoutMillis;
+    int secondsLeft = this.roundClock.getAsInt();
+    if (secondsLeft > 0) {
+      timeout = Math.min(timeout, secondsLeft * 1000L);
+    }
+    return new CallHandle().setTimeoutMillis(timeout);
   }
 
   /**
-   * Returns the chat text area.
+   * Returns whether the current conversation is waiting for a reply.
    *
-   * @return the chat text area.
+   * @return true if a reply is on its way.
    */
   @FXML
   public Boolean getWaitingReply() {
-    return this.waitingReply;
+    return this.mailbox != null && this.mailbox.isBusy();
   }
 
   /**
-   * Sends a message to the GPT model.
+   * Sends a message to the GPT model. A message sent while a reply is on its way is shown straight
+   * away and sent once the reply is in.
    *
    * @throws ApiProxyException if there is an error communicating with the API proxy
    * @throws IOException if there is an I/O error
    */
   @FXML
   public void onSendMessage(String message) throws ApiProxyException, IOException {
-    // Message should not be empty or waiting for a reply
-    if (!message.isEmpty() && !this.waitingReply) {
+    // Message should not be empty
+    if (!message.isEmpty()) {
       // Set the user message
-      ChatMessage msg = new ChatMessage("user", message);
-      appendChatMessage(msg);
+      addEntry(this.transcript, new ChatEntry("Me", message));
 
-      // Start the chat thread
-      this.startChatThread(msg);
+      // Start the chat request, or queue it behind the one running
+      this.mailbox.post(message);
     }
   }
 
+  /**
+   * Sets how urgent the replies of this chat manager are compared to other requests to the proxy.
+   *
+   * @param priority the priority of the chat requests.
+   */
+  public void setPriority(RequestPriority priority) {
+    this.priority = priority;
+  }
+
+  /**
+   * Sets the clock of the round the chats belong to. Requests are given up when it runs out, and
+   * the model is picked by the time left on it. Without a clock, e.g. for feedback given after the
+   * round, only the reply timeout applies.
+   *
+   * @param roundClock supplies the seconds left in the round, or 0 if there is no limit.
+   */
+  public void setRoundClock(IntSupplier roundClock) {
+    this.roundClock = roundClock;
+  }
+
   /**
    * Sets the prompt map for the chat manager.
    *
@@ -230,36 +507,136 @@ public class ChatManager {
     this.promptMap.put(key, value);
   }
 
+  /**
+   * Requests the opening line of every suspect in the background, so that it is ready by the time
+   * the player first talks to them. Replies that fail are requested again on the first visit.
+   */
+  public void prefetchGreetings() {
+    if (this.config == null) {
+      return;
+    }
+    cancelGreetings();
+    for (String name : this.promptSources.keySet()) {
+      if (name.equals("Feedback")) {
+        continue;
+      }
+      CallHandle call = new CallHandle().setTimeoutMillis(this.replyTimeoutMillis);
+      this.greetingCalls.put(name, call);
+      ChatCompletionRequest request =
+          createRequest()
+              .setPrefixMessages(getPersona(name))
+              .addMessage("system", this.introducePrompt)
+              .setCallHandle(call)
+              .setPriority(RequestPriority.SPECULATIVE);
+      this.greetings.put(
+          name,
+          request
+              .executeAsync()
+              .thenApply(result -> result.getChoice(0).getChatMessage())
+              .exceptionally(
+                  e -> {
+                    e.printStackTrace();
+                    return null;
+                  }));
+    }
+  }
+
   /**
    * Sets the suspect for the chat manager.
    *
    * @param suspect the suspect to set.
    */
   public void setSuspect(String suspect) {
+    // The reply to the previous suspect is no longer needed
+    cancelRequests();
+
     this.suspect = suspect;
 
     this.promptMap.put("name", this.suspect);
 
-    this.waitingReply = false;
-
-    StringBuilder prompt = new StringBuilder();
-    prompt.append(getSystemPrompt());
+    // Every grading starts afresh, the suspects carry on where they left off
+    if (this.suspect.equals("Feedback")) {
+      this.conversations.remove(this.suspect);
+    }
+    this.conversation = getConversation(this.suspect);
+    this.mailbox = getMailbox(this.suspect);
 
     // Load chat history
-    if (this.suspect.equals("feedback") || chatHistory.get(this.suspect) == null) {
-      txtaChat.clear();
+    ObservableList<ChatEntry> transcript = this.transcripts.get(this.suspect);
+    CompletableFuture<ChatMessage> greeting = null;
+    CallHandle greetingCall = null;
+    ChatMessage prompt;
+    if (this.suspect.equals("Feedback")) {
+      transcript = FXCollections.observableArrayList();
+      prompt = new ChatMessage("user", this.promptMap.get("feedback"));
+    } else if (transcript == null) {
+      transcript = FXCollections.observableArrayList();
+      greeting = this.greetings.remove(this.suspect);
+      greetingCall = this.greetingCalls.remove(this.suspect);
+      prompt = new ChatMessage("system", this.introducePrompt);
     } else {
-      txtaChat.setText(chatHistory.get(this.suspect));
-      prompt.append(this.returnPrompt);
+      prompt = new ChatMessage("system", this.returnPrompt);
     }
+    this.transcripts.put(this.suspect, transcript);
+    showTranscript(transcript);
 
-    // Start chat thread
-    this.startChatThread(new ChatMessage("system", prompt.toString()));
+    // Start chat request, using the prefetched greeting on a first visit
+    this.mailbox.begin();
+    this.startChatRequest(prompt, greeting, greetingCall);
+  }
+
+  /**
+   * Cancels the request waiting for a reply, if any. Its reply is discarded and the player can send
+   * a new message. Messages queued behind it are kept in the conversation, so the suspect still
+   * sees them on the next request.
+   */
+  public void cancelRequests() {
+    if (this.currentCall != null) {
+      this.currentCall.cancel();
+      this.currentCall = null;
+    }
+    // Take down the waiting message of the cancelled request
+    if (this.pendingReply != null) {
+      uiUpdates.cancel(this.pendingReply);
+      this.pendingTranscript.remove(this.pendingReply);
+      this.pendingReply = null;
+    }
+    if (this.mailbox != null) {
+      for (String message : this.mailbox.clear()) {
+        this.conversation.addMessage("user", message);
+      }
+    }
+    // Make any update still queued for the cancelled request stale
+    this.chatCount++;
   }
 
   /** Clears the chat history. Clears the chatbox as well. */
   public void clearChat() {
-    this.txtaChat.clear();
-    this.chatHistory.clear();
+    cancelRequests();
+    cancelGreetings();
+    this.transcripts.clear();
+    this.conversations.clear();
+    this.mailboxes.clear();
+    showTranscript(FXCollections.observableArrayList());
+  }
+
+  /**
+   * Shows a message of its own in place of the transcript, e.g. when there is nothing to chat
+   * about. Any request waiting for a reply is cancelled.
+   *
+   * @param text the message to show.
+   */
+  public void showNotice(String text) {
+    cancelRequests();
+    showTranscript(FXCollections.observableArrayList(new ChatEntry(null, text)));
+  }
+
+  /** Cancels and discards the prefetched greetings. */
+  private void cancelGreetings() {
+    for (CallHandle call : this.greetingCalls.values()) {
+      call.cancel();
+    }
+    this.greetingCalls.clear();
+    this.greetings.clear();
   }
 }
@@ -0,0 +1,157 @@
+package nz.ac.auckland.se206;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.function.Consumer;
+
+/**
+ * Queues the messages the player sends to one conversation and hands them to the model one request
+ * at a time, so messages typed while a reply is on its way are sent once it arrives instead of
+ * being dropped. Messages queued up behind a request can be coalesced into one request, as the
+ * player usually means them as one. All methods are safe to call from any thread.
+ */
+public class ConversationMailbox {
+
+  private final Consumer<String> handler;
+  private final Queue<String> messages = new ArrayDeque<String>();
+  private boolean busy = false;
+  private boolean coalesce = false;
+  private String separator = "\n";
+
+  /**
+   * Creates a mailbox delivering messages to the given handler. The handler starts the request for
+   * a message and must call {@link #done()} once its reply is in.
+   *
+   * @param handler the handler starting a request for a message.
+   */
+  public ConversationMailbox(Consumer<String> handler) {
+    this.handler = handler;
+  }
+
+  /**
+   * Sets whether messages queued behind a request are sent together as one request.
+   *
+   * @param coalesce true to join queued messages into one request.
+   * @return this mailbox, for chaining.
+   */
+  public ConversationMailbox setCoalesce(boolean coalesce) {
+    synchronized (this) {
+      this.coalesce = coalesce;
+    }
+    return this;
+  }
+
+  /**
+   * Sets the text placed between messages that are coalesced into one request.
+   *
+   * @param separator the separator between coalesced messages.
+   * @return this mailbox, for chaining.
+   */
+  public ConversationMailbox setSeparator(String separator) {
+    synchronized (this) {
+      this.separator = separator;
+    }
+    return this;
+  }
+
+  /**
+   * Adds a message to the mailbox. It is handed over straight away if no request is running,
+   * otherwise once the requests ahead of it are done.
+   *
+   * @param message the message to send.
+   */
+  public void post(String message) {
+    String next;
+    synchronized (this) {
+      this.messages.add(message);
+      next = takeNext();
+    }
+    deliver(next);
+  }
+
+  /**
+   * Marks a request that did not come from the mailbox as running, e.g. the suspect's greeting, so
+   * that messages wait for it as well.
+   *
+   * @return true if the conversation was idle, false if a request was already running.
+   */
+  public synchronized boolean begin() {
+    if (this.busy) {
+      return false;
+    }
+    this.busy = true;
+    return true;
+  }
+
+  /** Marks the running request as done, handing over the next queued message if there is one. */
+  public void done() {
+    String next;
+    synchronized (this) {
+      this.busy = false;
+      next = takeNext();
+    }
+    deliver(next);
+  }
+
+  /**
+   * Empties the mailbox and marks it idle, e.g. when the running request is cancelled.
+   *
+   * @return the messages that were still waiting to be sent, oldest first.
+   */
+  public synchronized List<String> clear() {
+    List<String> unsent = new ArrayList<String>(this.messages);
+    this.messages.clear();
+    this.busy = false;
+    return unsent;
+  }
+
+  /**
+   * Returns whether a request is running for this conversation.
+   *
+   * @return true if waiting for a reply.
+   */
+  public synchronized boolean isBusy() {
+    return this.busy;
+  }
+
+  /**
+   * Returns how many messages are waiting to be sent.
+   *
+   * @return the number of queued messages.
+   */
+  public synchronized int getQueuedCount() {
+    return this.messages.size();
+  }
+
+  /**
+   * Takes the next message to send if the conversation is idle, marking it busy. Must be called
+   * while holding the lock.
+   *
+   * @return the message to send, or null if there is none or a request is running.
+   */
+  private String takeNext() {
+    if (this.busy || this.messages.isEmpty()) {
+      return null;
+    }
+    this.busy = true;
+    if (!this.coalesce) {
+      return this.messages.poll();
+    }
+    String next = String.join(this.separator, this.messages);
+    this.messages.clear();
+    return next;
+  }
+
+  /**
+   * Hands a message to the handler outside the lock, so the handler may post to the mailbox.
+   *
+   * @param message the message to hand over, or null if there is none.
+   */
+  private void deliver(String message) {
+    if (message != null) {
+      this.handler.accept(message);
+    }
+  }
+}
@@ -0,0 +1,179 @@
+package nz.ac.auckland.se206;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+/**
+ * Batches updates to the chat transcript and applies them once per frame, instead of handing the
+ * JavaFX thread a task for every streamed token. Text updates to an entry are coalesced so only the
+ * latest text is kept, and shown with a typewriter effect that catches up within a few frames. Each
+ * frame only does as much work as its budget allows, leaving the rest for the next frame so input
+ * is never held up behind a burst of updates.
+ */
+public class UiUpdateCoalescer {
+
+  private final Map<ChatEntry, String> targets = new ConcurrentHashMap<ChatEntry, String>();
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+  private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+  private AnimationTimer timer;
+  private long frameBudgetNanos = TimeUnit.MILLISECONDS.toNanos(4);
+  private int catchUpFrames = 8;
+  private int minCharsPerFrame = 2;
+
+  /**
+   * Sets how long the updates may take in each frame.
+   *
+   * @param frameBudgetMillis the time budget per frame, in milliseconds.
+   * @return this coalescer, for chaining.
+   */
+  public UiUpdateCoalescer setFrameBudgetMillis(long frameBudgetMillis) {
+    this.frameBudgetNanos = TimeUnit.MILLISECONDS.toNanos(frameBudgetMillis);
+    return this;
+  }
+
+  /**
+   * Sets the typewriter speed: text still to be shown is revealed within about this many frames,
+   * but never slower than the minimum number of characters per frame.
+   *
+   * @param catchUpFrames the number of frames to catch up with the latest text in.
+   * @param minCharsPerFrame the fewest characters to reveal each frame.
+   * @return this coalescer, for chaining.
+   */
+  public UiUpdateCoalescer setTypingSpeed(int catchUpFrames, int minCharsPerFrame) {
+    this.catchUpFrames = Math.max(1, catchUpFrames);
+    this.minCharsPerFrame = Math.max(1, minCharsPerFrame);
+    return this;
+  }
+
+  /**
+   * Types the given text into a transcript entry over the coming frames. Only the latest text given
+   * for an entry is kept, so this is safe to call for every streamed token from any thread.
+   *
+   * @param entry the entry to update.
+   * @param text the full text the entry should end up showing.
+   */
+  public void type(ChatEntry entry, String text) {
+    this.targets.put(entry, text);
+    schedule();
+  }
+
+  /**
+   * Runs an update on the JavaFX thread in the next frame, after the updates posted before it.
+   * Safe to call from any thread.
+   *
+   * @param update the update to run.
+   */
+  public void post(Runnable update) {
+    this.tasks.add(update);
+    schedule();
+  }
+
+  /**
+   * Drops any text still to be typed into the entry. Must be called on the JavaFX thread.
+   *
+   * @param entry the entry to stop updating.
+   */
+  public void cancel(ChatEntry entry) {
+    this.targets.remove(entry);
+  }
+
+  /**
+   * Shows the text in the entry straight away, dropping any text still to be typed into it. Must be
+   * called on the JavaFX thread.
+   *
+   * @param entry the entry to update.
+   * @param text the text to show.
+   */
+  public void show(ChatEntry entry, String text) {
+    this.targets.remove(entry);
+    entry.setText(text);
+  }
+
+  /** Starts the frame timer if it is not already running. */
+  private void schedule() {
+    if (this.scheduled.compareAndSet(false, true)) {
+      if (Platform.isFxApplicationThread()) {
+        startTimer();
+      } else {
+        Platform.runLater(this::startTimer);
+      }
+    }
+  }
+
+  /** Starts the frame timer, creating it on first use. Runs on the JavaFX thread. */
+  private void startTimer() {
+    if (this.timer == null) {
+      this.timer =
+          new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+              flush();
+            }
+          };
+    }
+    this.timer.start();
+  }
+
+  /** Applies the pending updates that fit into this frame's budget. */
+  private void flush() {
+    long deadline = System.nanoTime() + this.frameBudgetNanos;
+
+    // Posted updates first, so a finished reply is settled before more text is typed into it
+    Runnable task;
+    while (System.nanoTime() < deadline && (task = this.tasks.poll()) != null) {
+      task.run();
+    }
+
+    for (Map.Entry<ChatEntry, String> target : this.targets.entrySet()) {
+      if (System.nanoTime() >= deadline) {
+        break;
+      }
+      typeStep(target.getKey(), target.getValue());
+    }
+
+    // Stop the timer when idle, so the scene is not redrawn every frame for nothing
+    if (this.tasks.isEmpty() && this.targets.isEmpty()) {
+      this.timer.stop();
+      this.scheduled.set(false);
+      // Pick up anything added while the timer was being stopped
+      if (!(this.tasks.isEmpty() && this.targets.isEmpty())) {
+        schedule();
+      }
+    }
+  }
+
+  /**
+   * Reveals the next few characters of the target text in the entry.
+   *
+   * @param entry the entry being typed into.
+   * @param target the text the entry should end up showing.
+   */
+  private void typeStep(ChatEntry entry, String target) {
+    String shown = entry.getText();
+    // Start over if the entry shows something else, e.g. the waiting message
+    if (shown == null || !target.startsWith(shown)) {
+      shown = "";
+    }
+
+    int remaining = target.length() - shown.length();
+    int step = Math.max(this.minCharsPerFrame, -Math.floorDiv(-remaining, this.catchUpFrames));
+    int end = Math.min(target.length(), shown.length() + step);
+    if (end < target.length() && Character.isHighSurrogate(target.charAt(end - 1))) {
+      // Never split a character made of two chars, e.g. an emoji
+      end++;
+    }
+    entry.setText(target.substring(0, end));
+
+    if (end == target.length()) {
+      // Keep the entry if a newer text arrived in the meantime
+      this.targets.remove(entry, target);
+    }
+  }
+}
@@ -5,12 +5,14 @@ import java.net.URISyntaxException;
 import javafx.fxml.FXML;
 import javafx.scene.Node;
 import javafx.scene.control.Label;
-import javafx.scene.control.TextArea;
+import javafx.scene.control.ListView;
 import javafx.scene.image.ImageView;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.media.AudioClip;
 import javafx.scene.media.Media;
+import nz.ac.auckland.apiproxy.service.RequestPriority;
 import nz.ac.auckland.se206.App;
+import nz.ac.auckland.se206.ChatEntry;
 import nz.ac.auckland.se206.ChatManager;
 
 /**
@@ -27,7 +29,7 @@ public class ResultsController {
 
   @FXML private Label resultLabel;
 
-  @FXML private TextArea explanationArea;
+  @FXML private ListView<ChatEntry> explanationArea;
 
   private ChatManager feedbackManager;
 
@@ -38,6 +40,8 @@ public class ResultsController {
   private void initialize() {
     // create new chat manager
     this.feedbackManager = new ChatManager(this.explanationArea);
+    // the player is waiting on the feedback, so it goes ahead of any other requests
+    this.feedbackManager.setPriority(RequestPriority.FEEDBACK);
 
     try {
       // create audio player
@@ -97,6 +101,11 @@ public class ResultsController {
     }
   }
 
+  /** Cancels the feedback request waiting for a reply, if any. */
+  public void cancelFeedback() {
+    this.feedbackManager.cancelRequests();
+  }
+
   /**
    * Set the suspect image and feedback message.
    *
@@ -122,7 +131,7 @@ public class ResultsController {
         // prepend the feedback message with a negation if the user incorrectly guesses the suspect
         sb.append("NOT ");
 
-        this.explanationArea.setText("Sorry, you have guessed the wrong suspect!");
+        this.feedbackManager.showNotice("Sorry, you have guessed the wrong suspect!");
       } else {
         // lowercase/uppercase the 'feedback' keyword
         this.feedbackManager.setPromptMap("feedback", explanation);
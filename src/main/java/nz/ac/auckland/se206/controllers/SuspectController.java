@@ -11,7 +11,7 @@ import javafx.fxml.FXML;
 import javafx.scene.Cursor;
 import javafx.scene.Node;
 import javafx.scene.control.Label;
-import javafx.scene.control.TextArea;
+import javafx.scene.control.ListView;
 import javafx.scene.control.TextField;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
@@ -22,6 +22,7 @@ import javafx.scene.media.AudioClip;
 import javafx.scene.media.Media;
 import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
 import nz.ac.auckland.se206.App;
+import nz.ac.auckland.se206.ChatEntry;
 import nz.ac.auckland.se206.ChatManager;
 
 /**
@@ -93,7 +94,7 @@ public class SuspectController {
 
   @FXML private ImageView chatProfile;
 
-  @FXML private TextArea chatArea;
+  @FXML private ListView<ChatEntry> chatArea;
 
   @FXML private TextField chatInput;
 
@@ -112,6 +113,7 @@ public class SuspectController {
   private void initialize() {
     // create new chat manager instance
     this.chatManager = new ChatManager(this.chatArea);
+    this.chatManager.setRoundClock(() -> App.getTimer().getTime());
 
     try {
       // create new audio player to hover sound
@@ -225,9 +227,8 @@ public class SuspectController {
   @FXML
   private void onSendMessage(Event event) throws ApiProxyException, IOException {
     // response when message is submitted through chat with suspects
-    if ((!event.getEventType().equals(KeyEvent.KEY_PRESSED)
-            || ((KeyEvent) event).getCode().equals(KeyCode.ENTER))
-        && !this.chatManager.getWaitingReply()) {
+    if (!event.getEventType().equals(KeyEvent.KEY_PRESSED)
+        || ((KeyEvent) event).getCode().equals(KeyCode.ENTER)) {
       // trim output (of leading/trailing whitespaces)
       this.chatManager.onSendMessage(this.chatInput.getText().trim());
       // clear text input box to simulate actual chat box clearing once message is sent
@@ -275,6 +276,16 @@ public class SuspectController {
     this.chatManager.clearChat();
   }
 
+  /** Cancels the chat request waiting for a reply, if any. */
+  public void cancelChat() {
+    this.chatManager.cancelRequests();
+  }
+
+  /** Starts requesting the suspects' opening lines in the background. */
+  public void prefetchGreetings() {
+    this.chatManager.prefetchGreetings();
+  }
+
   /**
    * Returns the suspect name. Returns null if the suspect is not found.
    *
@@ -1,63 +1,79 @@
 package nz.ac.auckland.se206.prompts;
 
 import java.io.IOException;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.net.URL;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Utility class for prompt engineering. This class provides methods to load and fill prompt
- * templates with dynamic data.
+ * templates with dynamic data. Each template is loaded from the classpath and compiled once, so
+ * filling it again costs a single pass over the text.
  */
 public class PromptEngineering {
 
+  private static final Map<String, PromptTemplate> templates =
+      new ConcurrentHashMap<String, PromptTemplate>();
+
   /**
    * Retrieves a prompt template, fills it with the provided data, and returns the filled prompt.
    *
-   * @param promptId the ID of the prompt template to load
+   * @param promptSource the resource path of the prompt template to load
    * @param data the data to fill into the template
    * @return the filled prompt
    * @throws IllegalArgumentException if there is an error loading or filling the template
    */
   public static String getPrompt(String promptSource, Map<String, String> data) {
-    try {
-      // Load the prompt template file from resources
-      URL resourceUrl = PromptEngineering.class.getClassLoader().getResource(promptSource);
-      String template = loadTemplate(resourceUrl.toURI());
-      // Fill the template with the provided data
-      return fillTemplate(template, data);
-    } catch (IOException | URISyntaxException e) {
-      e.printStackTrace();
-      throw new IllegalArgumentException("Error loading or filling the prompt template.", e);
-    }
+    return getTemplate(promptSource).render(data);
   }
 
   /**
-   * Loads the content of a template file from the specified file path.
+   * Retrieves a compiled prompt template, loading it on first use, and checks that every
+   * placeholder in it will have a value.
    *
-   * @param filePath the URI of the file to load
-   * @return the content of the template file as a string
-   * @throws IOException if there is an error reading the file
+   * @param promptSource the resource path of the prompt template to load
+   * @param keys the keys values will be given for
+   * @return the compiled template
+   * @throws IllegalArgumentException if the template cannot be loaded or a placeholder has no value
    */
-  private static String loadTemplate(URI filePath) throws IOException {
-    return new String(Files.readAllBytes(Paths.get(filePath)));
+  public static PromptTemplate getTemplate(String promptSource, Set<String> keys) {
+    PromptTemplate template = getTemplate(promptSource);
+    template.checkKeys(keys);
+    return template;
   }
 
   /**
-   * Fills a template string with the provided data. Replaces placeholders in the template with
-   * corresponding values from the data map.
+   * Retrieves a compiled prompt template, loading it on first use.
    *
-   * @param template the template string to fill
-   * @param data the data to fill into the template
-   * @return the filled template string
+   * @param promptSource the resource path of the prompt template to load
+   * @return the compiled template
+   * @throws IllegalArgumentException if there is an error loading the template
+   */
+  public static PromptTemplate getTemplate(String promptSource) {
+    return templates.computeIfAbsent(
+        promptSource, source -> PromptTemplate.compile(loadTemplate(source)));
+  }
+
+  /**
+   * Loads the content of a template file from the classpath. Reading the resource as a stream also
+   * works once the resources are packaged in a jar.
+   *
+   * @param promptSource the resource path of the file to load
+   * @return the content of the template file as a string
+   * @throws IllegalArgumentException if there is an error reading the file
    */
-  private static String fillTemplate(String template, Map<String, String> data) {
-    for (Map.Entry<String, String> entry : data.entrySet()) {
-      template = template.replace("{" + entry.getKey() + "}", entry.getValue());
+  private static String loadTemplate(String promptSource) {
+    try (InputStream stream =
+        PromptEngineering.class.getClassLoader().getResourceAsStream(promptSource)) {
+      if (stream == null) {
+        throw new IllegalArgumentException("Prompt template not found: " + promptSource);
+      }
+      return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      e.printStackTrace();
+      throw new IllegalArgumentException("Error loading or filling the prompt template.", e);
     }
-    return template;
   }
 }
@@ -0,0 +1,104 @@
+package nz.ac.auckland.se206.prompts;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A prompt template compiled into the literal text between its placeholders and the keys of the
+ * placeholders. Placeholders are written as {key}, where the key is made of letters, digits and
+ * underscores; any other braces are left as they are. Compiling once lets every render fill the
+ * template in a single pass, instead of searching the whole text again for every key.
+ */
+public class PromptTemplate {
+
+  private static final Pattern PLACEHOLDER = Pattern.compile("\\{([A-Za-z0-9_]+)\\}");
+
+  /**
+   * Compiles a template string.
+   *
+   * @param template the template string to compile
+   * @return the compiled template
+   */
+  public static PromptTemplate compile(String template) {
+    List<String> literals = new ArrayList<String>();
+    List<String> keys = new ArrayList<String>();
+    Matcher matcher = PLACEHOLDER.matcher(template);
+    int end = 0;
+    while (matcher.find()) {
+      literals.add(template.substring(end, matcher.start()));
+      keys.add(matcher.group(1));
+      end = matcher.end();
+    }
+    literals.add(template.substring(end));
+    return new PromptTemplate(literals.toArray(new String[0]), keys.toArray(new String[0]));
+  }
+
+  private final String[] literals;
+  private final String[] keys;
+  private final int literalLength;
+
+  private PromptTemplate(String[] literals, String[] keys) {
+    this.literals = literals;
+    this.keys = keys;
+    int length = 0;
+    for (String literal : literals) {
+      length += literal.length();
+    }
+    this.literalLength = length;
+  }
+
+  /**
+   * Returns the keys of the placeholders in the template, in the order they first appear.
+   *
+   * @return the placeholder keys
+   */
+  public Set<String> getKeys() {
+    return new LinkedHashSet<String>(List.of(keys));
+  }
+
+  /**
+   * Checks that there is a value for every placeholder in the template.
+   *
+   * @param available the keys values will be given for
+   * @throws IllegalArgumentException if a placeholder has no value
+   */
+  public void checkKeys(Set<String> available) {
+    Set<String> missing = getKeys();
+    missing.removeAll(available);
+    if (!missing.isEmpty()) {
+      throw new IllegalArgumentException("No value for the prompt placeholders " + missing);
+    }
+  }
+
+  /**
+   * Fills the template with the provided data.
+   *
+   * @param data the data to fill into the template
+   * @return the filled template string
+   * @throws IllegalArgumentException if a placeholder has no value
+   */
+  public String render(Map<String, String> data) {
+    // Look up every value first, so the builder is sized exactly and nothing is written in vain
+    String[] values = new String[keys.length];
+    int length = literalLength;
+    for (int i = 0; i < keys.length; i++) {
+      values[i] = data.get(keys[i]);
+      if (values[i] == null) {
+        throw new IllegalArgumentException("No value for the prompt placeholder {" + keys[i] + "}");
+      }
+      length += values[i].length();
+    }
+
+    StringBuilder sb = new StringBuilder(length);
+    for (int i = 0; i < values.length; i++) {
+      sb.append(literals[i]).append(values[i]);
+    }
+    sb.append(literals[values.length]);
+    return sb.toString();
+  }
+}
@@ -0,0 +1,82 @@
+package nz.ac.auckland.apiproxy.chat.openai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+
+public class BpeTokenizerTest {
+
+  private BpeTokenizer tokenizer(String... tokens) {
+    List<byte[]> bytes = new ArrayList<>();
+    List<Integer> ranks = new ArrayList<>();
+    for (int i = 0; i < tokens.length; i++) {
+      bytes.add(tokens[i].getBytes(StandardCharsets.UTF_8));
+      ranks.add(i);
+    }
+    return new BpeTokenizer(
+        "test",
+        Pattern.compile(" ?\\p{L}+|\\s+", Pattern.UNICODE_CHARACTER_CLASS),
+        new BpeTokenizer.RankTable(bytes, ranks));
+  }
+
+  @Test
+  public void testMergesLowestRankFirst() {
+    BpeTokenizer tokenizer = tokenizer("a", "b", "c", " ", "ab", "abc", "bc");
+
+    // "abc" is a token, " abc" merges "ab" before "bc" and ends as " " + "abc"
+    assertEquals(1, tokenizer.countTokens("abc"));
+    assertEquals(3, tokenizer.countTokens("abc abc"));
+    // "cab" only merges "ab"
+    assertEquals(2, tokenizer.countTokens("cab"));
+  }
+
+  @Test
+  public void testMultiByteCharacters() {
+    BpeTokenizer tokenizer = tokenizer("é", "t", "ét");
+
+    assertEquals(1, tokenizer.countTokens("ét"));
+    // Unknown characters fall back to one token per UTF-8 byte
+    assertEquals(4, tokenizer.countTokens("中é"));
+  }
+
+  @Test
+  public void testCountsChatFormatOverhead() {
+    BpeTokenizer tokenizer = tokenizer("user", "hi");
+    List<ChatMessage> messages = List.of(new ChatMessage("user", "hi"));
+
+    assertEquals(3 + 1 + 1 + 3, tokenizer.countPromptTokens(messages));
+  }
+
+  @Test
+  public void testMatchesTiktokenForEveryModel() {
+    // Counts given by OpenAI's tiktoken for cl100k_base and o200k_base respectively
+    Map<String, int[]> expected =
+        Map.of(
+            "hello world", new int[] {2, 2},
+            "tiktoken is great!", new int[] {6, 6},
+            "I was at the gallery, ask the guard.\n\nHe'll tell you!", new int[] {15, 15},
+            "Don't touch the painting — it's worth $1,250,000!", new int[] {16, 14},
+            "You're the shop owner; I'LL ask again.", new int[] {12, 10},
+            "中文字符 and émigrés", new int[] {8, 6});
+
+    for (ChatCompletionRequest.Model model : ChatCompletionRequest.Model.values()) {
+      BpeTokenizer tokenizer = BpeTokenizer.forModel(model);
+      assertTrue(tokenizer.isExact(), "No rank file for " + tokenizer.getEncoding());
+      int column = tokenizer.getEncoding().equals(BpeTokenizer.O200K_BASE) ? 1 : 0;
+      for (Map.Entry<String, int[]> entry : expected.entrySet()) {
+        assertEquals(
+            entry.getValue()[column],
+            tokenizer.countTokens(entry.getKey()),
+            model + ": " + entry.getKey());
+      }
+    }
+    assertEquals(BpeTokenizer.O200K_BASE, BpeTokenizer.forModel(ChatCompletionRequest.Model.GPT_4o).getEncoding());
+    assertEquals(BpeTokenizer.CL100K_BASE, BpeTokenizer.forModel(ChatCompletionRequest.Model.GPT_4).getEncoding());
+  }
+}
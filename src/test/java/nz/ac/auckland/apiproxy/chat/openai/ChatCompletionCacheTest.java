@@ -0,0 +1,95 @@
+package nz.ac.auckland.apiproxy.chat.openai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ChatCompletionCacheTest {
+
+  @TempDir Path tempDir;
+
+  private ChatCompletionPayload payload(String content) {
+    return new ChatCompletionPayload(
+        "gpt-4o",
+        1718000000L,
+        new ChatCompletionPayload.Usage(10, 5, 15),
+        List.of(
+            new ChatCompletionPayload.ChoicePayload(
+                0, new ChatCompletionPayload.MessagePayload("assistant", content), "stop")));
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() {
+    ChatCompletionCache cache = new ChatCompletionCache(2);
+    cache.put("a", payload("A"));
+    cache.put("b", payload("B"));
+    cache.get("a");
+    cache.put("c", payload("C"));
+
+    assertNotNull(cache.get("a"));
+    assertNull(cache.get("b"));
+    assertNotNull(cache.get("c"));
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testDiskTierSurvivesNewInstance() {
+    new ChatCompletionCache(4, tempDir).put("key", payload("Hello again."));
+
+    ChatCompletionCache restarted = new ChatCompletionCache(4, tempDir);
+    ChatCompletionResult result = new ChatCompletionResult(restarted.get("key"));
+
+    assertEquals("Hello again.", result.getChoice(0).getChatMessage().getContent());
+    assertEquals(15, result.getUsageTotalTokens());
+    assertEquals(1, restarted.getDiskHits());
+  }
+
+  @Test
+  public void testDiskTierIsBounded() throws Exception {
+    ChatCompletionCache cache = new ChatCompletionCache(1, tempDir, 4, 60000);
+    long written = System.currentTimeMillis() - 10000;
+    for (String key : List.of("a", "b", "c", "d")) {
+      cache.put(key, payload(key));
+      Files.setLastModifiedTime(tempDir.resolve(key + ".json"), FileTime.fromMillis(written++));
+    }
+    // Reading "a" marks it as used, so the least recently used are now "b" and "c"
+    assertNotNull(cache.get("a"));
+    cache.put("e", payload("E"));
+    // An entry unused for longer than the maximum age is gone as well
+    Files.setLastModifiedTime(tempDir.resolve("d.json"), FileTime.fromMillis(0));
+
+    ChatCompletionCache restarted = new ChatCompletionCache(4, tempDir, 4, 60000);
+    assertNotNull(restarted.get("a"));
+    assertNotNull(restarted.get("e"));
+    assertNull(restarted.get("b"));
+    assertNull(restarted.get("c"));
+    assertNull(restarted.get("d"));
+  }
+
+  @Test
+  public void testCacheKeyDependsOnMessagesAndParameters() {
+    ChatCompletionRequest first =
+        new ChatCompletionRequest(null).setTemperature(0.2).addMessage("system", "ab");
+    ChatCompletionRequest same =
+        new ChatCompletionRequest(null).setTemperature(0.2).addMessage("system", "ab");
+    ChatCompletionRequest split =
+        new ChatCompletionRequest(null)
+            .setTemperature(0.2)
+            .addMessage("system", "a")
+            .addMessage("system", "b");
+    ChatCompletionRequest warmer =
+        new ChatCompletionRequest(null).setTemperature(0.3).addMessage("system", "ab");
+
+    assertEquals(first.getCacheKey(), same.getCacheKey());
+    assertNotEquals(first.getCacheKey(), split.getCacheKey());
+    assertNotEquals(first.getCacheKey(), warmer.getCacheKey());
+  }
+}
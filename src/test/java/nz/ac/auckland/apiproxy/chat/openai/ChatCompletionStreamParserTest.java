@@ -0,0 +1,69 @@
+package nz.ac.auckland.apiproxy.chat.openai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import org.junit.jupiter.api.Test;
+
+public class ChatCompletionStreamParserTest {
+
+  /** Returns the text a few bytes at a time, as a slow network would. */
+  private InputStream trickle(String text) {
+    return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)) {
+      @Override
+      public synchronized int read(byte[] b, int off, int len) {
+        return super.read(b, off, Math.min(len, 7));
+      }
+    };
+  }
+
+  private String chunk(String content, String finishReason) {
+    return "data: {\"model\":\"gpt-4o\",\"created\":1718000000,\"choices\":[{\"index\":0,"
+        + "\"delta\":{\"content\":\""
+        + content
+        + "\"},\"finish_reason\":"
+        + (finishReason == null ? "null" : "\"" + finishReason + "\"")
+        + "}]}\r\n\r\n";
+  }
+
+  @Test
+  public void testAssemblesDeltasSplitAcrossReads() throws IOException, ApiProxyException {
+    List<String> deltas = new ArrayList<>();
+    ChatCompletionStreamParser parser = new ChatCompletionStreamParser(deltas::add);
+    parser.parseEventStream(
+        trickle(
+            ": keep-alive\n\n"
+                + chunk("I was ", null)
+                + chunk("at the café.", null)
+                + chunk("", "stop")
+                + "data: {\"choices\":[],\"usage\":{\"prompt_tokens\":12,"
+                + "\"completion_tokens\":5,\"total_tokens\":17}}\n\n"
+                + "data: [DONE]\n\n"));
+
+    ChatCompletionResult result = parser.getResult();
+    assertEquals(List.of("I was ", "at the café."), deltas);
+    assertEquals("I was at the café.", result.getChoice(0).getChatMessage().getContent());
+    assertEquals("stop", result.getChoice(0).getFinishReason());
+    assertEquals("gpt-4o", result.getModel());
+    assertEquals(17, result.getUsageTotalTokens());
+  }
+
+  @Test
+  public void testErrorEventAndCutOffStream() throws IOException {
+    ChatCompletionStreamParser failed = new ChatCompletionStreamParser(delta -> {});
+    failed.parseEventStream(
+        trickle("data: {\"success\":false,\"code\":429,\"message\":\"Too many requests\"}"));
+    ApiProxyException e = assertThrows(ApiProxyException.class, failed::getResult);
+    assertEquals(429, e.getCode());
+
+    ChatCompletionStreamParser cutOff = new ChatCompletionStreamParser(delta -> {});
+    assertThrows(IOException.class, () -> cutOff.parseEventStream(trickle(chunk("I was", null))));
+  }
+}
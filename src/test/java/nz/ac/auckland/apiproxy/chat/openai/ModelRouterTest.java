@@ -0,0 +1,52 @@
+package nz.ac.auckland.apiproxy.chat.openai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest.Model;
+import org.junit.jupiter.api.Test;
+
+public class ModelRouterTest {
+
+  @Test
+  public void testPreferredModelWhileWithinBudget() {
+    ModelRouter router = new ModelRouter(Model.GPT_4o, Model.GPT_3_5_TURBO);
+    assertEquals(Model.GPT_4o, router.choose(0, 500));
+    assertEquals(Model.GPT_4o, router.choose(120, 500));
+
+    recordMillis(router, Model.GPT_4o, 2000, 10);
+    assertEquals(Model.GPT_4o, router.choose(120, 500));
+  }
+
+  @Test
+  public void testFastestModelNearTheEndOfTheRound() {
+    ModelRouter router = new ModelRouter(Model.GPT_4o, Model.GPT_3_5_TURBO);
+    assertEquals(Model.GPT_3_5_TURBO, router.choose(20, 500));
+    assertEquals(Model.GPT_4o, router.choose(50, 500));
+    assertEquals(Model.GPT_3_5_TURBO, router.choose(50, 3000));
+
+    // Measured reply times win over the assumed order
+    recordMillis(router, Model.GPT_4o, 500, 10);
+    recordMillis(router, Model.GPT_3_5_TURBO, 1500, 10);
+    assertEquals(Model.GPT_4o, router.choose(20, 500));
+  }
+
+  @Test
+  public void testFallbackWhenPreferredModelIsOverBudget() {
+    ModelRouter router =
+        new ModelRouter(Model.GPT_4o, Model.GPT_3_5_TURBO).setLatencyBudgetMillis(3000);
+    recordMillis(router, Model.GPT_4o, 5000, 10);
+    assertEquals(Model.GPT_3_5_TURBO, router.choose(120, 500));
+    assertEquals(1L, router.getDecisionCounts().get("gpt-3.5-turbo over budget"));
+
+    // Once the slow samples age out, the preferred model is tried again
+    router.setProfileWindowMillis(0);
+    assertEquals(Model.GPT_4o, router.choose(120, 500));
+  }
+
+  private static void recordMillis(ModelRouter router, Model model, long millis, int count) {
+    for (int i = 0; i < count; i++) {
+      router.recordReplyTime(model, TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+  }
+}
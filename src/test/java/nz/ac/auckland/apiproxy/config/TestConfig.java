@@ -0,0 +1,20 @@
+package nz.ac.auckland.apiproxy.config;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import nz.ac.auckland.apiproxy.service.ApiProxyJson;
+
+/** Builds configs for tests from JSON, without needing apiproxy.config. */
+public final class TestConfig {
+
+  private TestConfig() {}
+
+  public static ApiProxyConfig create(String apiKey, String email) {
+    try {
+      return ApiProxyJson.readerFor(ApiProxyConfig.class)
+          .readValue("{\"apiKey\": \"" + apiKey + "\", \"email\": \"" + email + "\"}");
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package nz.ac.auckland.apiproxy.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class HistogramTest {
+
+  @Test
+  public void testPercentilesAreWithinBucketPrecision() {
+    Histogram histogram = new Histogram("test", "ms", 1);
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i);
+    }
+
+    assertEquals(1000, histogram.getCount());
+    assertEquals(500.5, histogram.getMean(), 0.001);
+    assertEquals(1000, histogram.getMax(), 0.001);
+    assertTrue(Math.abs(histogram.getP50() - 500) <= 500 * 0.125);
+    assertTrue(Math.abs(histogram.getP95() - 950) <= 950 * 0.125);
+    assertTrue(Math.abs(histogram.getP99() - 990) <= 990 * 0.125);
+  }
+
+  @Test
+  public void testBucketsCoverEveryValue() {
+    long[] values = {0, 1, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE};
+    for (long value : values) {
+      int bucket = Histogram.bucketOf(value);
+      assertTrue(Histogram.upperBoundOf(bucket) >= value);
+      if (bucket > 0) {
+        assertTrue(Histogram.upperBoundOf(bucket - 1) < value);
+      }
+    }
+  }
+
+  @Test
+  public void testErrorCountsByCode() {
+    ErrorCounts errors = new ErrorCounts();
+    errors.record(429);
+    errors.record(429);
+    errors.record(null);
+    errors.record(9999);
+
+    assertEquals(4, errors.getTotal());
+    assertEquals(2, errors.getCount(429));
+    assertEquals(1, errors.getConnectionFailures());
+    assertEquals(2L, errors.getCountsByCode().get("429"));
+    assertEquals(1L, errors.getCountsByCode().get("other"));
+  }
+}
@@ -0,0 +1,109 @@
+package nz.ac.auckland.apiproxy.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+
+public class ConcurrencyLimiterTest {
+
+  @Test
+  public void testWaitingCallsGoAheadByPriority() throws Exception {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 5000);
+    assertTrue(limiter.acquire(RequestPriority.INTERACTIVE));
+
+    List<RequestPriority> order = new CopyOnWriteArrayList<>();
+    Thread speculative = waitInLine(limiter, RequestPriority.SPECULATIVE, order);
+    awaitWaiting(limiter, 1);
+    Thread interactive = waitInLine(limiter, RequestPriority.INTERACTIVE, order);
+    awaitWaiting(limiter, 2);
+    Thread feedback = waitInLine(limiter, RequestPriority.FEEDBACK, order);
+    awaitWaiting(limiter, 3);
+
+    limiter.recordIgnored(RequestPriority.INTERACTIVE);
+    speculative.join(5000);
+    interactive.join(5000);
+    feedback.join(5000);
+
+    assertEquals(
+        List.of(
+            RequestPriority.FEEDBACK, RequestPriority.INTERACTIVE, RequestPriority.SPECULATIVE),
+        order);
+  }
+
+  @Test
+  public void testSpeculativeCallsLeaveRoomForOthers() throws Exception {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 4, 5000);
+    assertTrue(limiter.acquire(RequestPriority.SPECULATIVE, 0));
+    assertTrue(limiter.acquire(RequestPriority.SPECULATIVE, 0));
+    assertFalse(limiter.acquire(RequestPriority.SPECULATIVE, 0));
+
+    assertTrue(limiter.acquire(RequestPriority.INTERACTIVE, 0));
+    assertTrue(limiter.acquire(RequestPriority.FEEDBACK, 0));
+    assertEquals(2, limiter.getInFlight(RequestPriority.SPECULATIVE));
+    assertEquals(4, limiter.getInFlight());
+  }
+
+  @Test
+  public void testCancelledCallsStopWaiting() throws Exception {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 5000);
+    assertTrue(limiter.acquire(RequestPriority.INTERACTIVE));
+
+    CallHandle handle = new CallHandle();
+    AtomicBoolean acquired = new AtomicBoolean(true);
+    Thread speculative =
+        new Thread(
+            () -> {
+              try {
+                acquired.set(limiter.acquire(RequestPriority.SPECULATIVE, handle));
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            });
+    speculative.start();
+    awaitWaiting(limiter, 1);
+
+    long start = System.nanoTime();
+    handle.cancel();
+    speculative.join(5000);
+    assertFalse(acquired.get());
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+    assertEquals(0, limiter.getWaiting());
+    assertEquals(0, limiter.getTimeoutCount());
+
+    // The slot is still free for whoever comes next
+    limiter.recordIgnored(RequestPriority.INTERACTIVE);
+    assertTrue(limiter.acquire(RequestPriority.INTERACTIVE, 0));
+  }
+
+  private static Thread waitInLine(
+      ConcurrencyLimiter limiter, RequestPriority priority, List<RequestPriority> order) {
+    Thread thread =
+        new Thread(
+            () -> {
+              try {
+                if (limiter.acquire(priority)) {
+                  order.add(priority);
+                  limiter.recordIgnored(priority);
+                }
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            });
+    thread.start();
+    return thread;
+  }
+
+  private static void awaitWaiting(ConcurrencyLimiter limiter, int waiting)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (limiter.getWaiting() < waiting && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+  }
+}
@@ -0,0 +1,30 @@
+package nz.ac.auckland.apiproxy.simulator;
+
+import java.util.Random;
+
+/** Distribution the simulator draws its response delays from. */
+@FunctionalInterface
+public interface LatencyDistribution {
+
+  long sampleMillis(Random random);
+
+  static LatencyDistribution none() {
+    return random -> 0;
+  }
+
+  static LatencyDistribution fixed(long millis) {
+    return random -> millis;
+  }
+
+  static LatencyDistribution uniform(long minMillis, long maxMillis) {
+    return random -> minMillis + (long) (random.nextDouble() * (maxMillis - minMillis));
+  }
+
+  /**
+   * Log-normal delays, the usual shape of service latencies: most calls close to the median and a
+   * long tail. A sigma of 0.5 puts p99 at about 3.2 times the median.
+   */
+  static LatencyDistribution logNormal(long medianMillis, double sigma) {
+    return random -> Math.round(medianMillis * Math.exp(sigma * random.nextGaussian()));
+  }
+}
@@ -0,0 +1,180 @@
+package nz.ac.auckland.apiproxy.simulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest;
+import nz.ac.auckland.apiproxy.chat.openai.ChatMessage;
+import nz.ac.auckland.apiproxy.chat.openai.TokenBudgetPolicy;
+import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
+import nz.ac.auckland.apiproxy.config.TestConfig;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.apiproxy.metrics.Histogram;
+import nz.ac.auckland.apiproxy.metrics.ProxyMetrics;
+import nz.ac.auckland.apiproxy.service.EndPoints;
+
+/**
+ * Drives simulated players through conversations like the ones {@link
+ * nz.ac.auckland.se206.ChatManager} has with the suspects, against a local {@link ProxySimulator},
+ * and reports throughput and latency percentiles.
+ *
+ * <p>Run with {@code ./mvnw test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=nz.ac.auckland.apiproxy.simulator.LoadGenerator -Dexec.args="50 5"}, where the
+ * arguments are the number of players, the turns per suspect, and optionally the median proxy
+ * latency in milliseconds and the error rate.
+ */
+public class LoadGenerator {
+
+  private static final String[] SUSPECTS = {"Shop Owner", "Security Guard", "Employee"};
+  private static final String[] QUESTIONS = {
+    "Where were you last night between nine and eleven?",
+    "Who else has a key to the back door?",
+    "Did you notice anything unusual about the painting yesterday?",
+    "Why were the cameras turned off?",
+    "What were you doing on the shop computer?"
+  };
+
+  private final int players;
+  private final int turnsPerSuspect;
+  private final long thinkTimeMillis;
+
+  private final Histogram turnLatency = new Histogram("turn", "ms", 1e6);
+  private final Histogram firstDeltaLatency = new Histogram("firstDelta", "ms", 1e6);
+  private final AtomicLong turns = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+
+  public LoadGenerator(int players, int turnsPerSuspect, long thinkTimeMillis) {
+    this.players = players;
+    this.turnsPerSuspect = turnsPerSuspect;
+    this.thinkTimeMillis = thinkTimeMillis;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int players = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    int turnsPerSuspect = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+    long medianMillis = args.length > 2 ? Long.parseLong(args[2]) : 800;
+    double errorRate = args.length > 3 ? Double.parseDouble(args[3]) : 0.02;
+
+    try (ProxySimulator simulator = new ProxySimulator()) {
+      simulator
+          .setLatency(LatencyDistribution.logNormal(medianMillis, 0.5))
+          .setErrors(errorRate, 503)
+          .setTokenDelayMillis(20);
+      EndPoints.setBaseUrl(simulator.getBaseUrl());
+
+      LoadGenerator generator = new LoadGenerator(players, turnsPerSuspect, 500);
+      System.out.println(generator.run());
+      System.out.println(
+          "simulator: chat requests="
+              + simulator.getChatRequests()
+              + " injected errors="
+              + simulator.getInjectedErrors());
+      System.out.println(ProxyMetrics.snapshot());
+    } finally {
+      EndPoints.setBaseUrl(null);
+    }
+    System.exit(0);
+  }
+
+  /** Runs every player to the end and returns a report. */
+  public String run() throws Exception {
+    ApiProxyConfig config = TestConfig.create("load-test", "load-test@example.com");
+    ExecutorService executor = Executors.newFixedThreadPool(players);
+    long start = System.nanoTime();
+    try {
+      List<Future<?>> results = new ArrayList<>();
+      for (int i = 0; i < players; i++) {
+        results.add(executor.submit(() -> playGame(config)));
+      }
+      for (Future<?> result : results) {
+        result.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    return String.format(
+        "players=%d turns=%d failures=%d time=%.1fs throughput=%.1f turns/s%n  %s%n  %s",
+        players,
+        turns.get(),
+        failures.get(),
+        seconds,
+        turns.get() / seconds,
+        turnLatency,
+        firstDeltaLatency);
+  }
+
+  public Histogram getTurnLatency() {
+    return turnLatency;
+  }
+
+  public long getTurns() {
+    return turns.get();
+  }
+
+  public long getFailures() {
+    return failures.get();
+  }
+
+  private void playGame(ApiProxyConfig config) {
+    for (String suspect : SUSPECTS) {
+      ChatCompletionRequest request =
+          new ChatCompletionRequest(config)
+              .setN(1)
+              .setTemperature(0.2)
+              .setTopP(0.5)
+              .setMaxTokens(100)
+              .setHistoryPolicy(new TokenBudgetPolicy(2000));
+      request.addMessage(
+          "system", "You are the " + suspect + " in a game about a stolen painting.");
+      takeTurn(request);
+
+      for (int turn = 0; turn < turnsPerSuspect; turn++) {
+        think();
+        String question = QUESTIONS[ThreadLocalRandom.current().nextInt(QUESTIONS.length)];
+        request.addMessage(new ChatMessage("user", question));
+        takeTurn(request);
+      }
+    }
+  }
+
+  private void takeTurn(ChatCompletionRequest request) {
+    long start = System.nanoTime();
+    boolean[] first = {true};
+    try {
+      ChatMessage reply =
+          request
+              .executeStreaming(
+                  delta -> {
+                    if (first[0]) {
+                      first[0] = false;
+                      firstDeltaLatency.record(System.nanoTime() - start);
+                    }
+                  })
+              .getChoice(0)
+              .getChatMessage();
+      request.addMessage(reply);
+      turnLatency.record(System.nanoTime() - start);
+      turns.incrementAndGet();
+    } catch (ApiProxyException e) {
+      failures.incrementAndGet();
+    }
+  }
+
+  private void think() {
+    if (thinkTimeMillis <= 0) {
+      return;
+    }
+    try {
+      TimeUnit.MILLISECONDS.sleep(ThreadLocalRandom.current().nextLong(thinkTimeMillis + 1));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
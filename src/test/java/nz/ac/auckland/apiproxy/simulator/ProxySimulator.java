@@ -0,0 +1,359 @@
+package nz.ac.auckland.apiproxy.simulator;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import nz.ac.auckland.apiproxy.service.ApiProxyJson;
+
+/**
+ * Local stand-in for the cloud proxy. It serves the chat completion and text to speech paths with
+ * the same JSON envelopes, so the client can be exercised offline with {@code
+ * EndPoints.setBaseUrl(simulator.getBaseUrl())}. Response delays, error rates and whether chat
+ * requests asking for a stream get one are configurable. Like the provider's prompt cache, a
+ * request whose first message was seen before reports that message's tokens as cached.
+ */
+public class ProxySimulator implements AutoCloseable {
+
+  private static final String REPLY =
+      "I was closing up the shop around nine, like I always do. Then I went home and watched the"
+          + " news. I did not see anyone near the back door that night.";
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final Random random = new Random();
+
+  private volatile LatencyDistribution latency = LatencyDistribution.none();
+  private volatile double errorRate = 0;
+  private volatile int errorCode = 503;
+  private volatile boolean streaming = true;
+  private volatile long tokenDelayMillis = 0;
+  private volatile int cutOffWords = -1;
+  private volatile Integer cutOffCode = null;
+
+  private final AtomicLong chatRequests = new AtomicLong();
+  private final AtomicLong ttsRequests = new AtomicLong();
+  private final AtomicLong injectedErrors = new AtomicLong();
+
+  private final Set<String> seenPrefixes = ConcurrentHashMap.newKeySet();
+
+  public ProxySimulator() throws IOException {
+    this(0);
+  }
+
+  public ProxySimulator(int port) throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+    server.createContext("/proxy/openai-chat-completion", this::handleChat);
+    server.createContext("/proxy/text-to-speech", this::handleTts);
+    executor = Executors.newCachedThreadPool();
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  public String getBaseUrl() {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  public ProxySimulator setLatency(LatencyDistribution latency) {
+    this.latency = latency;
+    return this;
+  }
+
+  /** Answers the given fraction of requests with an error envelope carrying the code. */
+  public ProxySimulator setErrors(double errorRate, int errorCode) {
+    this.errorRate = errorRate;
+    this.errorCode = errorCode;
+    return this;
+  }
+
+  /** Sets whether chat requests asking for a stream get one, or a single envelope instead. */
+  public ProxySimulator setStreaming(boolean streaming) {
+    this.streaming = streaming;
+    return this;
+  }
+
+  /** Sets the delay between streamed words, on top of the response delay. */
+  public ProxySimulator setTokenDelayMillis(long tokenDelayMillis) {
+    this.tokenDelayMillis = tokenDelayMillis;
+    return this;
+  }
+
+  /**
+   * Ends streams after the given number of words, with an error event carrying the code, or with
+   * no terminator at all if the code is null. A negative number of words streams whole replies.
+   */
+  public ProxySimulator setCutOff(int words, Integer code) {
+    this.cutOffWords = words;
+    this.cutOffCode = code;
+    return this;
+  }
+
+  public long getChatRequests() {
+    return chatRequests.get();
+  }
+
+  public long getTtsRequests() {
+    return ttsRequests.get();
+  }
+
+  public long getInjectedErrors() {
+    return injectedErrors.get();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void handleChat(HttpExchange exchange) throws IOException {
+    chatRequests.incrementAndGet();
+    try (exchange) {
+      JsonNode request = readBody(exchange);
+      if (!delay() || injectError(exchange)) {
+        return;
+      }
+
+      int promptTokens = countPromptTokens(request);
+      int cachedTokens = countCachedTokens(request);
+      String model = request.path("model").asText("gpt-4o-mini");
+      String[] words = REPLY.split(" ");
+
+      if (request.path("stream").asBoolean(false) && streaming) {
+        streamReply(exchange, model, words, promptTokens, cachedTokens);
+      } else {
+        sendJson(
+            exchange,
+            json -> {
+              json.writeBooleanField("success", true);
+              json.writeNumberField("code", 0);
+              json.writeStringField("message", "OK");
+              json.writeObjectFieldStart("chat_completion");
+              writeHeader(json, model);
+              json.writeArrayFieldStart("choices");
+              json.writeStartObject();
+              json.writeNumberField("index", 0);
+              json.writeObjectFieldStart("message");
+              json.writeStringField("role", "assistant");
+              json.writeStringField("content", REPLY);
+              json.writeEndObject();
+              json.writeStringField("finish_reason", "stop");
+              json.writeEndObject();
+              json.writeEndArray();
+              writeUsage(json, promptTokens, cachedTokens, words.length);
+              json.writeEndObject();
+            });
+      }
+    }
+  }
+
+  private void handleTts(HttpExchange exchange) throws IOException {
+    ttsRequests.incrementAndGet();
+    try (exchange) {
+      JsonNode request = readBody(exchange);
+      if (!delay() || injectError(exchange)) {
+        return;
+      }
+      String text = request.path("text").asText();
+      sendJson(
+          exchange,
+          json -> {
+            json.writeBooleanField("success", true);
+            json.writeNumberField("code", 0);
+            json.writeStringField("message", "OK");
+            json.writeStringField(
+                "audio",
+                Base64.getEncoder().encodeToString(text.getBytes(StandardCharsets.UTF_8)));
+          });
+    }
+  }
+
+  private void streamReply(
+      HttpExchange exchange, String model, String[] words, int promptTokens, int cachedTokens)
+      throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+    exchange.sendResponseHeaders(200, 0);
+    OutputStream out = exchange.getResponseBody();
+    for (int i = 0; i < words.length; i++) {
+      if (i == cutOffWords) {
+        Integer code = cutOffCode;
+        if (code != null) {
+          writeEvent(
+              out,
+              json -> {
+                json.writeBooleanField("success", false);
+                json.writeNumberField("code", code);
+                json.writeStringField("message", "Simulated failure");
+              });
+        }
+        return;
+      }
+      String content = (i == 0 ? "" : " ") + words[i];
+      boolean first = i == 0;
+      writeEvent(
+          out,
+          json -> {
+            writeHeader(json, model);
+            json.writeArrayFieldStart("choices");
+            json.writeStartObject();
+            json.writeNumberField("index", 0);
+            json.writeObjectFieldStart("delta");
+            if (first) {
+              json.writeStringField("role", "assistant");
+            }
+            json.writeStringField("content", content);
+            json.writeEndObject();
+            json.writeNullField("finish_reason");
+            json.writeEndObject();
+            json.writeEndArray();
+          });
+      if (tokenDelayMillis > 0 && !sleep(tokenDelayMillis)) {
+        return;
+      }
+    }
+    writeEvent(
+        out,
+        json -> {
+          writeHeader(json, model);
+          json.writeArrayFieldStart("choices");
+          json.writeStartObject();
+          json.writeNumberField("index", 0);
+          json.writeObjectFieldStart("delta");
+          json.writeEndObject();
+          json.writeStringField("finish_reason", "stop");
+          json.writeEndObject();
+          json.writeEndArray();
+          writeUsage(json, promptTokens, cachedTokens, words.length);
+        });
+    out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+    out.flush();
+  }
+
+  private static int countPromptTokens(JsonNode request) {
+    int count = 3;
+    for (JsonNode message : request.path("messages")) {
+      count += 3 + message.path("content").asText().length() / 4;
+    }
+    return count;
+  }
+
+  private int countCachedTokens(JsonNode request) {
+    JsonNode first = request.path("messages").path(0);
+    String prefix = first.path("role").asText() + ":" + first.path("content").asText();
+    if (first.isMissingNode() || seenPrefixes.add(prefix)) {
+      return 0;
+    }
+    return 3 + first.path("content").asText().length() / 4;
+  }
+
+  private JsonNode readBody(HttpExchange exchange) throws IOException {
+    InputStream body = exchange.getRequestBody();
+    if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+      body = new GZIPInputStream(body);
+    }
+    return ApiProxyJson.getMapper().readTree(body);
+  }
+
+  private boolean delay() {
+    long millis;
+    synchronized (random) {
+      millis = latency.sampleMillis(random);
+    }
+    return millis <= 0 || sleep(millis);
+  }
+
+  private boolean injectError(HttpExchange exchange) throws IOException {
+    boolean fail;
+    synchronized (random) {
+      fail = random.nextDouble() < errorRate;
+    }
+    if (!fail) {
+      return false;
+    }
+    injectedErrors.incrementAndGet();
+    int code = errorCode;
+    sendJson(
+        exchange,
+        json -> {
+          json.writeBooleanField("success", false);
+          json.writeNumberField("code", code);
+          json.writeStringField("message", "Simulated error " + code);
+        });
+    return true;
+  }
+
+  private void sendJson(HttpExchange exchange, JsonFields fields) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(200, 0);
+    try (JsonGenerator json =
+        ApiProxyJson.getMapper()
+            .getFactory()
+            .createGenerator(exchange.getResponseBody(), JsonEncoding.UTF8)) {
+      json.writeStartObject();
+      fields.write(json);
+      json.writeEndObject();
+    }
+  }
+
+  private void writeEvent(OutputStream out, JsonFields fields) throws IOException {
+    out.write("data: ".getBytes(StandardCharsets.UTF_8));
+    try (JsonGenerator json =
+        ApiProxyJson.getMapper().getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+      json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      json.writeStartObject();
+      fields.write(json);
+      json.writeEndObject();
+    }
+    out.write("\n\n".getBytes(StandardCharsets.UTF_8));
+    out.flush();
+  }
+
+  private static void writeHeader(JsonGenerator json, String model) throws IOException {
+    json.writeStringField("id", "chatcmpl-simulated");
+    json.writeNumberField("created", System.currentTimeMillis() / 1000);
+    json.writeStringField("model", model);
+  }
+
+  private static void writeUsage(
+      JsonGenerator json, int promptTokens, int cachedTokens, int completionTokens)
+      throws IOException {
+    json.writeObjectFieldStart("usage");
+    json.writeNumberField("prompt_tokens", promptTokens);
+    json.writeNumberField("completion_tokens", completionTokens);
+    json.writeNumberField("total_tokens", promptTokens + completionTokens);
+    json.writeObjectFieldStart("prompt_tokens_details");
+    json.writeNumberField("cached_tokens", cachedTokens);
+    json.writeEndObject();
+    json.writeEndObject();
+  }
+
+  private static boolean sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /** Writes the fields of a JSON object. */
+  @FunctionalInterface
+  private interface JsonFields {
+    void write(JsonGenerator json) throws IOException;
+  }
+}
@@ -0,0 +1,304 @@
+package nz.ac.auckland.apiproxy.simulator;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionCache;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest.Model;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionResult;
+import nz.ac.auckland.apiproxy.chat.openai.ChatMessage;
+import nz.ac.auckland.apiproxy.chat.openai.HedgePolicy;
+import nz.ac.auckland.apiproxy.chat.openai.SummarizingHistoryPolicy;
+import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
+import nz.ac.auckland.apiproxy.config.TestConfig;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.apiproxy.metrics.Histogram;
+import nz.ac.auckland.apiproxy.metrics.ProxyMetrics;
+import nz.ac.auckland.apiproxy.service.ApiProxyHttpClient;
+import nz.ac.auckland.apiproxy.service.ApiProxyJson;
+import nz.ac.auckland.apiproxy.service.CallHandle;
+import nz.ac.auckland.apiproxy.service.CircuitBreaker;
+import nz.ac.auckland.apiproxy.service.EndPoints;
+import nz.ac.auckland.apiproxy.service.RetryPolicy;
+import nz.ac.auckland.apiproxy.tts.TextToSpeechRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ProxySimulatorTest {
+
+  private ProxySimulator simulator;
+  private ApiProxyConfig config;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    simulator = new ProxySimulator();
+    EndPoints.setBaseUrl(simulator.getBaseUrl());
+    config = TestConfig.create("test-key", "test@example.com");
+  }
+
+  @AfterEach
+  public void tearDown() {
+    EndPoints.setBaseUrl(null);
+    simulator.close();
+  }
+
+  private ChatCompletionRequest request() {
+    return new ChatCompletionRequest(config)
+        .setN(1)
+        .setMaxTokens(100)
+        .addMessage("system", "You are a suspect.")
+        .addMessage("user", "Where were you last night?");
+  }
+
+  @Test
+  public void testChatEnvelope() throws ApiProxyException {
+    ChatCompletionResult result = request().execute();
+
+    assertTrue(result.getChoice(0).getChatMessage().getContent().startsWith("I was closing"));
+    assertTrue(result.getUsageCompletionTokens() > 0);
+  }
+
+  @Test
+  public void testPromptTokenDriftIsRecorded() throws ApiProxyException {
+    Histogram drift = ProxyMetrics.getHistograms().get("promptTokenDriftPercent");
+    long before = drift.getCount();
+
+    ChatCompletionResult result = request().setModel(Model.GPT_4o).execute();
+    assertTrue(result.getEstimatedPromptTokens() > 0);
+    assertEquals(before + 1, drift.getCount());
+  }
+
+  @Test
+  public void testChatStream() throws ApiProxyException {
+    List<String> deltas = new ArrayList<>();
+    ChatCompletionResult result = request().executeStreaming(deltas::add);
+
+    assertTrue(deltas.size() > 1);
+    assertEquals(String.join("", deltas), result.getChoice(0).getChatMessage().getContent());
+    assertEquals("stop", result.getChoice(0).getFinishReason());
+  }
+
+  @Test
+  public void testStablePrefixIsReportedAsCached() throws ApiProxyException {
+    List<ChatMessage> persona = List.of(new ChatMessage("system", "You are a suspect."));
+    ChatCompletionRequest request =
+        new ChatCompletionRequest(config).setPrefixMessages(persona).addMessage("user", "Hello?");
+
+    assertEquals(0, request.execute().getUsageCachedTokens());
+    request.addMessage("user", "Where were you last night?");
+    ChatCompletionResult result = request.executeStreaming(delta -> {});
+
+    assertTrue(result.getUsageCachedTokens() > 0);
+    assertEquals("system", request.getPrefixMessages().get(0).getRole());
+  }
+
+  @Test
+  public void testTextToSpeech() throws ApiProxyException {
+    new TextToSpeechRequest(config).setText("Hello").execute();
+
+    assertEquals(1, simulator.getTtsRequests());
+  }
+
+  @Test
+  public void testInjectedErrorsAreRetried() {
+    simulator.setErrors(1, 503);
+    ChatCompletionRequest request =
+        request().setRetryPolicy(RetryPolicy.defaults().setBaseDelayMillis(0));
+
+    ApiProxyException e = assertThrows(ApiProxyException.class, request::execute);
+    assertEquals(503, e.getCode());
+    assertEquals(3, simulator.getChatRequests());
+  }
+
+  @Test
+  public void testFailsOverToHealthyHost() throws Exception {
+    try (ProxySimulator healthy = new ProxySimulator()) {
+      simulator.setErrors(1, 503);
+      EndPoints.setBaseUrls(List.of(simulator.getBaseUrl(), healthy.getBaseUrl()));
+
+      for (int i = 0; i < 5; i++) {
+        request().setRetryPolicy(RetryPolicy.defaults().setBaseDelayMillis(0)).execute();
+      }
+
+      // The failing host is skipped after its first failure
+      assertEquals(1, simulator.getChatRequests());
+      assertEquals(5, healthy.getChatRequests());
+      // Only the failing host's breaker counts the failure
+      assertEquals(1, CircuitBreaker.forHost(simulator.getBaseUrl()).getFailureCount());
+      assertEquals(0, CircuitBreaker.forHost(healthy.getBaseUrl()).getFailureCount());
+    }
+  }
+
+  @Test
+  public void testRoutesToFasterHost() throws Exception {
+    try (ProxySimulator fast = new ProxySimulator()) {
+      simulator.setLatency(LatencyDistribution.fixed(100));
+      EndPoints.setBaseUrls(List.of(simulator.getBaseUrl(), fast.getBaseUrl()));
+
+      for (int i = 0; i < 20; i++) {
+        request().execute();
+      }
+
+      assertTrue(fast.getChatRequests() > 15);
+    }
+  }
+
+  @Test
+  public void testDeadlineAbortsSlowCall() {
+    simulator.setLatency(LatencyDistribution.fixed(5000));
+    ChatCompletionRequest request =
+        request().setCallHandle(new CallHandle().setTimeoutMillis(200));
+
+    long start = System.nanoTime();
+    ApiProxyException e = assertThrows(ApiProxyException.class, request::execute);
+    assertTrue(e.getMessage().contains("ran out of time"));
+    assertTrue(System.nanoTime() - start < 2_000_000_000L);
+  }
+
+  @Test
+  public void testCancelAbortsStream() throws Exception {
+    simulator.setTokenDelayMillis(200);
+    CallHandle call = new CallHandle();
+    CompletableFuture<ChatCompletionResult> reply =
+        request().setCallHandle(call).executeStreamingAsync(delta -> call.cancel());
+
+    ExecutionException e = assertThrows(ExecutionException.class, () -> reply.get(2, SECONDS));
+    assertTrue(e.getCause().getMessage().contains("cancelled"));
+  }
+
+  @Test
+  public void testCutOffStreamIsNotRetriedOrCached() {
+    ChatCompletionCache cache = new ChatCompletionCache(10);
+    List<String> deltas = new ArrayList<>();
+
+    // An error event after text was shown is not retried, even with a retryable code
+    simulator.setCutOff(2, 503);
+    assertThrows(
+        ApiProxyException.class, () -> request().setCache(cache).executeStreaming(deltas::add));
+    assertEquals(1, simulator.getChatRequests());
+    assertEquals(2, deltas.size());
+
+    // Nor is a stream that just stops
+    simulator.setCutOff(2, null);
+    assertThrows(
+        ApiProxyException.class, () -> request().setCache(cache).executeStreaming(d -> {}));
+    assertEquals(2, simulator.getChatRequests());
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testHttpClientRejectsOtherSettings() throws Exception {
+    ApiProxyHttpClient client = ApiProxyHttpClient.getInstance(config);
+    assertSame(client, ApiProxyHttpClient.getInstance(TestConfig.create("other", "other@x.com")));
+
+    ApiProxyConfig smallPool =
+        ApiProxyJson.readerFor(ApiProxyConfig.class).readValue("{\"maxConnections\": 2}");
+    assertThrows(IllegalArgumentException.class, () -> ApiProxyHttpClient.getInstance(smallPool));
+  }
+
+  @Test
+  public void testHedgeAnswersForSlowCall() throws ApiProxyException {
+    AtomicInteger calls = new AtomicInteger();
+    simulator.setLatency(random -> calls.getAndIncrement() == 0 ? 5000 : 0);
+    HedgePolicy hedge =
+        HedgePolicy.afterPercentile(95).setMinSamples(Long.MAX_VALUE).setDefaultDelayMillis(200);
+
+    List<String> deltas = new ArrayList<>();
+    long start = System.nanoTime();
+    ChatCompletionResult result = request().setHedgePolicy(hedge).executeStreaming(deltas::add);
+
+    assertTrue(System.nanoTime() - start < 2_000_000_000L);
+    assertEquals(String.join("", deltas), result.getChoice(0).getChatMessage().getContent());
+    assertEquals(2, simulator.getChatRequests());
+    assertEquals(1, hedge.getHedgeWinCount());
+
+    // A call answering within the delay is not hedged
+    request().setHedgePolicy(hedge).executeStreaming(delta -> {});
+    assertEquals(3, simulator.getChatRequests());
+    assertEquals(1, hedge.getHedgeCount());
+  }
+
+  @Test
+  public void testHedgeReplyIsCachedUnderItsOwnModel() throws ApiProxyException {
+    AtomicInteger calls = new AtomicInteger();
+    simulator.setLatency(random -> calls.getAndIncrement() == 0 ? 5000 : 0);
+    HedgePolicy hedge =
+        HedgePolicy.afterPercentile(95)
+            .setModel(Model.GPT_3_5_TURBO)
+            .setMinSamples(Long.MAX_VALUE)
+            .setDefaultDelayMillis(200);
+    ChatCompletionCache cache = new ChatCompletionCache(10);
+    Histogram preferred = ProxyMetrics.getHistograms().get("chatResponse.gpt-4o");
+    Histogram fallback = ProxyMetrics.getHistograms().get("chatResponse.gpt-3.5-turbo");
+    long preferredBefore = preferred.getCount();
+    long fallbackBefore = fallback.getCount();
+
+    ChatCompletionResult result =
+        request().setModel(Model.GPT_4o).setCache(cache).setHedgePolicy(hedge).execute();
+    assertEquals(Model.GPT_3_5_TURBO, result.getAnsweringModel());
+
+    // Each call is timed under its own model, the cancelled one for as long as it had waited
+    assertEquals(preferredBefore + 1, preferred.getCount());
+    assertEquals(fallbackBefore + 1, fallback.getCount());
+
+    // The fallback model's reply is not replayed for the preferred model
+    request().setModel(Model.GPT_4o).setCache(cache).execute();
+    assertEquals(3, simulator.getChatRequests());
+    request().setModel(Model.GPT_3_5_TURBO).setCache(cache).execute();
+    assertEquals(3, simulator.getChatRequests());
+  }
+
+  @Test
+  public void testOlderMessagesAreSummarized() throws Exception {
+    SummarizingHistoryPolicy policy = new SummarizingHistoryPolicy(config, 2, 2);
+    List<ChatMessage> history = new ArrayList<>();
+    history.add(new ChatMessage("system", "You are a suspect."));
+    for (int i = 0; i < 4; i++) {
+      history.add(new ChatMessage(i % 2 == 0 ? "user" : "assistant", "Line " + i));
+    }
+
+    policy.select(history);
+    awaitChatRequests(1);
+    long deadline = System.nanoTime() + SECONDS.toNanos(5);
+    while (policy.getSummary() == null && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+    assertNotNull(policy.getSummary());
+
+    // With the first summary in, the next batch is summarized in turn
+    history.add(new ChatMessage("user", "Line 4"));
+    history.add(new ChatMessage("assistant", "Line 5"));
+    List<ChatMessage> selected = policy.select(history);
+    awaitChatRequests(2);
+    assertEquals(2, simulator.getChatRequests());
+    assertTrue(selected.get(1).getContent().startsWith("Summary of the earlier conversation"));
+  }
+
+  @Test
+  public void testLoadGenerator() throws Exception {
+    LoadGenerator generator = new LoadGenerator(4, 1, 0);
+    generator.run();
+
+    // Every player greets and questions each of the three suspects once
+    assertEquals(4 * 3 * 2, generator.getTurns());
+    assertEquals(0, generator.getFailures());
+  }
+
+  private void awaitChatRequests(long requests) throws InterruptedException {
+    long deadline = System.nanoTime() + SECONDS.toNanos(5);
+    while (simulator.getChatRequests() < requests && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+  }
+}
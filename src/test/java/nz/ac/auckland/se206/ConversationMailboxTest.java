@@ -0,0 +1,61 @@
+package nz.ac.auckland.se206;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class ConversationMailboxTest {
+
+  @Test
+  public void testMessagesWaitForTheRunningRequest() {
+    List<String> sent = new ArrayList<String>();
+    ConversationMailbox mailbox = new ConversationMailbox(sent::add);
+
+    mailbox.post("Where were you?");
+    mailbox.post("Answer me.");
+    mailbox.post("Hello?");
+    assertEquals(List.of("Where were you?"), sent);
+    assertEquals(2, mailbox.getQueuedCount());
+
+    mailbox.done();
+    assertEquals(List.of("Where were you?", "Answer me."), sent);
+    mailbox.done();
+    mailbox.done();
+    assertEquals(List.of("Where were you?", "Answer me.", "Hello?"), sent);
+    assertFalse(mailbox.isBusy());
+  }
+
+  @Test
+  public void testQueuedMessagesAreCoalesced() {
+    List<String> sent = new ArrayList<String>();
+    ConversationMailbox mailbox = new ConversationMailbox(sent::add).setCoalesce(true);
+
+    // The greeting holds the conversation until it is in
+    assertTrue(mailbox.begin());
+    mailbox.post("Where were you?");
+    mailbox.post("Answer me.");
+    assertTrue(sent.isEmpty());
+
+    mailbox.done();
+    assertEquals(List.of("Where were you?\nAnswer me."), sent);
+    assertTrue(mailbox.isBusy());
+  }
+
+  @Test
+  public void testClearReturnsUnsentMessages() {
+    List<String> sent = new ArrayList<String>();
+    ConversationMailbox mailbox = new ConversationMailbox(sent::add);
+
+    mailbox.post("Where were you?");
+    mailbox.post("Answer me.");
+    assertEquals(List.of("Answer me."), mailbox.clear());
+    assertFalse(mailbox.isBusy());
+
+    mailbox.post("Hello?");
+    assertEquals(List.of("Where were you?", "Hello?"), sent);
+  }
+}
@@ -0,0 +1,37 @@
+package nz.ac.auckland.se206.prompts;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+public class PromptTemplateTest {
+
+  @Test
+  public void testRenderFillsEveryPlaceholder() {
+    PromptTemplate template =
+        PromptTemplate.compile("You are {name}. {name} says: {line} {\"mood\": 1}");
+    assertEquals(Set.of("name", "line"), template.getKeys());
+    assertEquals(
+        "You are Shop Owner. Shop Owner says: Hello. {\"mood\": 1}",
+        template.render(Map.of("name", "Shop Owner", "line", "Hello.", "unused", "x")));
+  }
+
+  @Test
+  public void testMissingKeysAreReported() {
+    PromptTemplate template = PromptTemplate.compile("You are {name}, {role}.");
+    assertThrows(IllegalArgumentException.class, () -> template.checkKeys(Set.of("name")));
+    assertThrows(IllegalArgumentException.class, () -> template.render(Map.of("name", "Sam")));
+  }
+
+  @Test
+  public void testTemplatesAreLoadedOnce() {
+    PromptTemplate template = PromptEngineering.getTemplate("prompts/shop_owner.txt");
+    assertSame(template, PromptEngineering.getTemplate("prompts/shop_owner.txt"));
+    assertThrows(
+        IllegalArgumentException.class, () -> PromptEngineering.getTemplate("prompts/none.txt"));
+  }
+}